@@ -0,0 +1,137 @@
+package com.bore.benchmarks;
+
+import com.bore.auth.Authenticator;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 挑战应答的计算和验证
+ *
+ * handshake为一次完整握手（客户端应答加服务器验证），分别在1、8、64个线程上共享同一个认证器运行，
+ * 结果为所有线程合计的每秒握手数；impl为LEGACY时使用原先共享一个Mac并加锁的实现作为对照
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticatorBenchmark {
+    @Param({"CURRENT", "LEGACY"})
+    private String impl;
+
+    private Authenticator authenticator;
+    private LegacyAuthenticator legacy;
+    private UUID challenge;
+    private String tag;
+
+    @Setup
+    public void setup() throws Exception {
+        authenticator = new Authenticator("benchmark-secret");
+        legacy = new LegacyAuthenticator("benchmark-secret");
+        challenge = UUID.randomUUID();
+        tag = authenticator.answer(challenge);
+    }
+
+    /**
+     * 每个线程使用自己的挑战，与服务器上每个连接一个挑战一致
+     */
+    @State(Scope.Thread)
+    public static class Challenge {
+        private UUID id;
+
+        @Setup
+        public void setup() {
+            id = UUID.randomUUID();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String answer() {
+        return "LEGACY".equals(impl) ? legacy.answer(challenge) : authenticator.answer(challenge);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean validate() {
+        return "LEGACY".equals(impl) ? legacy.validate(challenge, tag) : authenticator.validate(challenge, tag);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean handshake1Thread(Challenge challenge) {
+        return handshake(challenge.id);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean handshake8Threads(Challenge challenge) {
+        return handshake(challenge.id);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean handshake64Threads(Challenge challenge) {
+        return handshake(challenge.id);
+    }
+
+    private boolean handshake(UUID id) {
+        if ("LEGACY".equals(impl)) {
+            return legacy.validate(id, legacy.answer(id));
+        }
+        return authenticator.validate(id, authenticator.answer(id));
+    }
+
+    /**
+     * 原先的实现：所有线程共享一个Mac并在其上同步，十六进制逐字节格式化和解析
+     */
+    private static final class LegacyAuthenticator {
+        private final Mac hmac;
+
+        private LegacyAuthenticator(String secret) throws Exception {
+            byte[] key = MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8));
+            hmac = Mac.getInstance("HmacSHA256");
+            hmac.init(new SecretKeySpec(key, "HmacSHA256"));
+        }
+
+        private String answer(UUID challenge) {
+            byte[] result;
+            synchronized (hmac) {
+                result = hmac.doFinal(uuidToBytes(challenge));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : result) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+
+        private boolean validate(UUID challenge, String tag) {
+            byte[] tagBytes = new byte[tag.length() / 2];
+            for (int i = 0; i < tagBytes.length; i++) {
+                tagBytes[i] = (byte) Integer.parseInt(tag.substring(i * 2, i * 2 + 2), 16);
+            }
+            byte[] expected;
+            synchronized (hmac) {
+                expected = hmac.doFinal(uuidToBytes(challenge));
+            }
+            return MessageDigest.isEqual(tagBytes, expected);
+        }
+
+        private static byte[] uuidToBytes(UUID uuid) {
+            byte[] buffer = new byte[16];
+            for (int i = 0; i < 8; i++) {
+                buffer[i] = (byte) (uuid.getMostSignificantBits() >>> ((7 - i) * 8));
+                buffer[i + 8] = (byte) (uuid.getLeastSignificantBits() >>> ((7 - i) * 8));
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.bore.benchmarks;
+
+import com.bore.nio.SelectorEngine;
+import com.bore.util.SocketProfile;
+import com.bore.util.StreamUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 经由本地回环的端到端转发：客户端 -> 转发器 -> 回显服务 -> 转发器 -> 客户端
+ *
+ * roundTrip每次往返chunkSize字节，转发吞吐量为 ops/s * chunkSize * 2；pingPong测量单字节往返延迟。
+ * profile作用于转发器两侧的Socket，STREAM模式下同时决定复制的缓冲区大小和写入策略
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyBenchmark {
+    /**
+     * 被测的转发方式
+     */
+    public enum Mode {
+        // StreamUtils.copyBidirectional(Socket, Socket, ExecutorService)
+        STREAM,
+        // StreamUtils.copyBidirectional(SocketChannel, SocketChannel, ExecutorService)
+        DIRECT,
+        // SelectorEngine
+        NIO
+    }
+
+    @Param({"STREAM", "DIRECT", "NIO"})
+    private Mode mode;
+
+    @Param({"DEFAULT", "LATENCY", "THROUGHPUT"})
+    private SocketProfile profile;
+
+    @Param({"32768"})
+    private int chunkSize;
+
+    private ServerSocket echoServer;
+    private ServerSocketChannel front;
+    private ExecutorService executor;
+    private SelectorEngine engine;
+    private Socket client;
+    private InputStream in;
+    private OutputStream out;
+    private byte[] chunk;
+    private byte[] received;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        echoServer = new ServerSocket(0, 50, loopback);
+        executor.submit(this::echoLoop);
+
+        front = ServerSocketChannel.open().bind(new InetSocketAddress(loopback, 0));
+        client = new Socket(loopback, front.socket().getLocalPort());
+        client.setTcpNoDelay(true);
+        SocketChannel accepted = front.accept();
+        profile.apply(accepted.socket());
+        SocketChannel upstream = SocketChannel.open();
+        profile.apply(upstream.socket());
+        upstream.connect(new InetSocketAddress(loopback, echoServer.getLocalPort()));
+
+        switch (mode) {
+            case STREAM:
+                executor.submit(() -> {
+                    StreamUtils.copyBidirectional(accepted.socket(), upstream.socket(), executor, profile);
+                    return null;
+                });
+                break;
+            case DIRECT:
+                executor.submit(() -> StreamUtils.copyBidirectional(accepted, upstream, executor));
+                break;
+            case NIO:
+                engine = new SelectorEngine(1);
+                engine.forward(accepted, upstream, null);
+                break;
+        }
+
+        in = client.getInputStream();
+        out = client.getOutputStream();
+        chunk = new byte[chunkSize];
+        received = new byte[chunkSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        front.close();
+        echoServer.close();
+        if (engine != null) {
+            engine.close();
+        }
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @BenchmarkMode(org.openjdk.jmh.annotations.Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte roundTrip() throws IOException {
+        out.write(chunk);
+        readFully(received, chunkSize);
+        return received[0];
+    }
+
+    @Benchmark
+    @BenchmarkMode(org.openjdk.jmh.annotations.Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte pingPong() throws IOException {
+        out.write(1);
+        readFully(received, 1);
+        return received[0];
+    }
+
+    private void readFully(byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new IOException("Unexpected EOF");
+            }
+            read += n;
+        }
+    }
+
+    private Void echoLoop() {
+        try {
+            while (true) {
+                Socket socket = echoServer.accept();
+                socket.setTcpNoDelay(true);
+                executor.submit(() -> {
+                    byte[] buffer = new byte[65536];
+                    try (Socket s = socket) {
+                        InputStream input = s.getInputStream();
+                        OutputStream output = s.getOutputStream();
+                        int n;
+                        while ((n = input.read(buffer)) != -1) {
+                            output.write(buffer, 0, n);
+                        }
+                    }
+                    return null;
+                });
+            }
+        } catch (IOException e) {
+            // 基准测试结束时服务端被关闭
+            return null;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.bore.benchmarks;
+
+import com.bore.shared.ClientMessage;
+import com.bore.shared.Delimited;
+import com.bore.shared.ServerMessage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 控制帧收发吞吐量，recvLegacy为逐字节读取并构建JSON树的原始实现，作为对照
+ *
+ * encoding为BINARY时收发协商后的二进制帧，recvLegacy始终解码JSON
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DelimitedBenchmark {
+    @Param({"Connection", "Hello", "Heartbeat"})
+    private String frame;
+
+    @Param({"JSON", "BINARY"})
+    private String encoding;
+
+    private Delimited recvStream;
+    private LegacyDecoder legacyDecoder;
+    private Delimited sendStream;
+    private ClientMessage accept;
+
+    @Setup
+    public void setup() throws IOException {
+        ServerMessage message;
+        switch (frame) {
+            case "Connection":
+                message = ServerMessage.connection(UUID.randomUUID());
+                break;
+            case "Hello":
+                message = ServerMessage.hello(40123);
+                break;
+            default:
+                message = ServerMessage.heartbeat();
+                break;
+        }
+        byte[] json = encode(message, false);
+        recvStream = new Delimited(new MemorySocket("BINARY".equals(encoding) ? encode(message, true) : json));
+        legacyDecoder = new LegacyDecoder(new MemorySocket(json));
+        sendStream = new Delimited(new MemorySocket(new byte[]{0}));
+        sendStream.setBinary("BINARY".equals(encoding));
+        accept = ClientMessage.accept(UUID.randomUUID());
+    }
+
+    private static byte[] encode(ServerMessage message, boolean binary) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (binary) {
+            message.writeBinary(new DataOutputStream(bytes));
+        } else {
+            bytes.write(new ObjectMapper().writeValueAsBytes(message));
+            bytes.write(0);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public ServerMessage recv() throws IOException {
+        return recvStream.recv(ServerMessage.class);
+    }
+
+    @Benchmark
+    public JsonNode recvLegacy() throws IOException {
+        return legacyDecoder.recv();
+    }
+
+    @Benchmark
+    public void send() throws IOException {
+        sendStream.send(accept);
+    }
+
+    /**
+     * 优化前的解码方式：逐字节读取、复制帧数据并构建完整的JSON树
+     */
+    static final class LegacyDecoder {
+        private final DataInputStream input;
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private final ByteArrayOutputStream readBuffer = new ByteArrayOutputStream();
+
+        LegacyDecoder(MemorySocket socket) {
+            this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        JsonNode recv() throws IOException {
+            readBuffer.reset();
+            int b;
+            while ((b = input.read()) != 0) {
+                readBuffer.write(b);
+            }
+            JsonNode node = objectMapper.readTree(readBuffer.toByteArray());
+            if (node.has("Connection")) {
+                UUID.fromString(node.get("Connection").asText());
+            }
+            return node;
+        }
+    }
+}
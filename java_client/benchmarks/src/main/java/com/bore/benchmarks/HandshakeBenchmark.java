@@ -0,0 +1,140 @@
+package com.bore.benchmarks;
+
+import com.bore.shared.ClientMessage;
+import com.bore.shared.Constants;
+import com.bore.shared.Delimited;
+import com.bore.shared.ServerMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 经由本地回环的连接建立速率：每次操作新建一个连接并完成一次Hello交换，双方都以带超时的读取等待对方的消息，
+ * 与客户端建立控制连接和服务器处理新连接的过程一致
+ *
+ * impl为LEGACY时使用原先的实现作为对照：每个流创建一个单线程执行器，带超时的读取提交给它并等待结果
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandshakeBenchmark {
+    @Param({"CURRENT", "LEGACY"})
+    private String impl;
+
+    private ServerSocket server;
+    private ExecutorService executor;
+    private int port;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        port = server.getLocalPort();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.submit(this::acceptLoop);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ServerMessage connect1Thread() throws Exception {
+        return connect();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public ServerMessage connect8Threads() throws Exception {
+        return connect();
+    }
+
+    private ServerMessage connect() throws Exception {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        try (Delimited stream = new Delimited(socket)) {
+            stream.send(ClientMessage.hello(0));
+            ServerMessage reply = recvTimeout(stream, ServerMessage.class);
+            if (reply == null) {
+                throw new IOException("Unexpected EOF");
+            }
+            return reply;
+        }
+    }
+
+    private Void acceptLoop() {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                executor.submit(() -> serve(socket));
+            }
+        } catch (IOException e) {
+            // 基准测试结束时服务端被关闭
+            return null;
+        }
+    }
+
+    private Void serve(Socket socket) throws Exception {
+        try (Delimited stream = new Delimited(socket)) {
+            ClientMessage hello = recvTimeout(stream, ClientMessage.class);
+            if (hello != null) {
+                stream.send(ServerMessage.hello(hello.getHelloPort()));
+                // 等待客户端关闭，服务器不先关闭连接
+                stream.recv(ClientMessage.class);
+            }
+        } catch (IOException e) {
+            // 客户端关闭连接
+        }
+        return null;
+    }
+
+    private <T> T recvTimeout(Delimited stream, Class<T> type) throws Exception {
+        if ("LEGACY".equals(impl)) {
+            return legacyRecvTimeout(stream, type);
+        }
+        return stream.recvTimeout(type);
+    }
+
+    /**
+     * 原先的实现：流创建时启动单线程执行器，读取在执行器线程上进行，调用线程等待结果，流关闭时关闭执行器
+     */
+    private static <T> T legacyRecvTimeout(Delimited stream, Class<T> type) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<T> future = executor.submit(() -> stream.recv(type));
+            try {
+                return future.get(Constants.NETWORK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Error receiving message", e);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                throw e;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.bore.benchmarks;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * 内存中的Socket，循环回放给定字节并丢弃写入的数据，用于不经过网络测量帧编解码
+ */
+class MemorySocket extends Socket {
+    private final InputStream input;
+    private final OutputStream output;
+
+    MemorySocket(byte[] replay) {
+        this.input = new ReplayInputStream(replay);
+        this.output = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public synchronized void close() {
+    }
+
+    /**
+     * 无限循环回放同一段字节的输入流
+     */
+    private static final class ReplayInputStream extends InputStream {
+        private final byte[] data;
+        private int pos;
+
+        private ReplayInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            int b = data[pos] & 0xff;
+            pos = (pos + 1) % data.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, data.length - pos);
+            System.arraycopy(data, pos, b, off, n);
+            pos = (pos + n) % data.length;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return data.length - pos;
+        }
+    }
+}
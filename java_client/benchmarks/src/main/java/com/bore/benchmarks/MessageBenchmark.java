@@ -0,0 +1,58 @@
+package com.bore.benchmarks;
+
+import com.bore.shared.ClientMessage;
+import com.bore.shared.ServerMessage;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ServerMessage反序列化和ClientMessage序列化，不含帧处理
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] connection;
+    private ClientMessage accept;
+    private ClientMessage authenticate;
+
+    @Setup
+    public void setup() {
+        connection = ("{\"Connection\":\"" + UUID.randomUUID() + "\"}").getBytes(StandardCharsets.UTF_8);
+        accept = ClientMessage.accept(UUID.randomUUID());
+        authenticate = ClientMessage.authenticate(
+                "8f434346648f6b96df89dda901c5176b10a6d83961dd3c1ac88b59b2dc327aa4");
+    }
+
+    @Benchmark
+    public ServerMessage deserializeStreaming() throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(connection)) {
+            return ServerMessage.read(parser);
+        }
+    }
+
+    @Benchmark
+    public ServerMessage deserializeDatabind() throws IOException {
+        return objectMapper.readValue(connection, ServerMessage.class);
+    }
+
+    @Benchmark
+    public byte[] serializeAccept() throws IOException {
+        return objectMapper.writeValueAsBytes(accept);
+    }
+
+    @Benchmark
+    public byte[] serializeAuthenticate() throws IOException {
+        return objectMapper.writeValueAsBytes(authenticate);
+    }
+}
@@ -1,6 +1,15 @@
 package com.bore;
 
 import com.bore.client.Client;
+import com.bore.client.ClientOptions;
+import com.bore.client.ClientSupervisor;
+import com.bore.client.TlsConnector;
+import com.bore.client.TunnelConfig;
+import com.bore.client.TunnelGroup;
+import com.bore.metrics.MetricsHttpServer;
+import com.bore.metrics.MetricsRegistry;
+import com.bore.util.BufferPool;
+import com.bore.util.SocketProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
@@ -8,21 +17,26 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CountDownLatch;
 
 @Command(name = "bore-client", mixinStandardHelpOptions = true,
         description = "Java client for bore tunnel service")
 public class Main implements Callable<Integer> {
     private static final Logger log = LoggerFactory.getLogger(Main.class);
 
-    @Parameters(index = "0", description = "The local port to expose")
-    private int localPort;
+    @Parameters(index = "0", arity = "0..1", description = "The local port to expose (omit when using --config)")
+    private Integer localPort;
 
     @Option(names = {"-l", "--local-host"}, description = "The local host to expose", defaultValue = "localhost")
     private String localHost;
 
-    @Option(names = {"-t", "--to"}, description = "Address of the remote server", required = true)
+    @Option(names = {"-t", "--to"}, description = "Address of the remote server (required unless set in --config)")
     private String to;
 
     @Option(names = {"-p", "--port"}, description = "Optional port on the remote server to select", defaultValue = "0")
@@ -31,44 +45,217 @@ public class Main implements Callable<Integer> {
     @Option(names = {"-s", "--secret"}, description = "Optional secret for authentication")
     private String secret;
 
+    @Option(names = {"--forward-mode"}, description = "Data forwarding engine: ${COMPLETION-CANDIDATES} (default: BLOCKING, or NIO with --config)")
+    private ClientOptions.ForwardMode forwardMode;
 
-    public static void main(String[] args) {
-//        int exitCode = new CommandLine(new Main()).execute(args);
-        int exitCode = 0;
-        try {
-            Client client = Client.create("localhost", 8080, "localhost", 9527, "aabb@123");
+    @Option(names = {"--io-threads"}, description = "Number of selector loops for the NIO engine (default: number of CPU cores)")
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
 
-            // 添加关闭钩子
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                log.info("Shutting down client...");
-                client.close();
-            }));
+    @Option(names = {"--threads"}, description = "Thread type for connection handling: ${COMPLETION-CANDIDATES} (VIRTUAL requires Java 21+)", defaultValue = "PLATFORM")
+    private ClientOptions.ThreadMode threadMode;
 
-            client.listen();
-        } catch (Exception e) {
-            log.error("Error: {}", e.getMessage(), e);
-            exitCode = 1;
-        }
-        System.exit(exitCode);
+    @Option(names = {"--buffer-pool-limit"}, description = "Maximum idle bytes kept by each buffer pool, in MiB", defaultValue = "64")
+    private long bufferPoolLimitMb;
+
+    @Option(names = {"--warm-pool"}, description = "Keep a pool of pre-authenticated data connections to the server")
+    private boolean warmPool;
+
+    @Option(names = {"--warm-pool-min"}, description = "Minimum number of warm data connections", defaultValue = "0")
+    private int warmPoolMin;
+
+    @Option(names = {"--warm-pool-max"}, description = "Maximum number of warm data connections", defaultValue = "64")
+    private int warmPoolMax;
+
+    @Option(names = {"--parallel-dial"}, description = "Connect to the local service while the remote handshake is in flight")
+    private boolean parallelDial;
+
+    @Option(names = {"--local-pool"}, description = "Number of pre-opened idle connections to the local service", defaultValue = "0")
+    private int localPool;
+
+    @Option(names = {"--local-pool-idle-ms"}, description = "Maximum idle time of a pre-opened local connection", defaultValue = "30000")
+    private long localPoolIdleMs;
+
+    @Option(names = {"--local-backend"}, description = "Another instance of the local service as HOST:PORT, connections are balanced across all instances (repeatable)")
+    private List<String> localBackends = new ArrayList<>();
+
+    @Option(names = {"--balance-policy"}, description = "How to pick a local backend: ${COMPLETION-CANDIDATES}", defaultValue = "LEAST_CONNECTIONS")
+    private ClientOptions.BalancePolicy balancePolicy;
+
+    @Option(names = {"--health-check-interval-ms"}, description = "Interval of TCP health checks on local backends (0 = disabled)", defaultValue = "5000")
+    private long healthCheckIntervalMs;
+
+    @Option(names = {"--outlier-ejection-failures"}, description = "Stop using a local backend after this many consecutive connect failures (0 = never)", defaultValue = "3")
+    private int outlierEjectionFailures;
+
+    @Option(names = {"--outlier-ejection-ms"}, description = "How long an outlier local backend is left out, growing with repeated ejections", defaultValue = "10000")
+    private long outlierEjectionMs;
+
+    @Option(names = {"--multiplex"}, description = "Carry all tunneled connections over a few long-lived server connections, if the server supports it")
+    private boolean multiplex;
+
+    @Option(names = {"--mux-connections"}, description = "Number of multiplexed server connections", defaultValue = "2")
+    private int muxConnections;
+
+    @Option(names = {"--binary-control"}, description = "Use compact binary control frames instead of JSON, if the server supports it")
+    private boolean binaryControl;
+
+    @Option(names = {"--compress"}, description = "Compress tunneled data on the server connections, if the server supports it; data that does not compress well is sent as is")
+    private boolean compress;
+
+    @Option(names = {"--tls"}, description = "Connect to the server over TLS (the server must sit behind a TLS terminator)")
+    private boolean tls;
+
+    @Option(names = {"--tls-ca"}, description = "PEM file with certificates to trust for the server, instead of the JVM trust store")
+    private File tlsCa;
+
+    @Option(names = {"--tls-protocols"}, split = ",", description = "TLS protocol versions to offer, e.g. TLSv1.2 for cheaper resumption (default: JVM default)")
+    private String[] tlsProtocols;
+
+    @Option(names = {"--tls-no-resumption"}, description = "Perform a full TLS handshake on every connection")
+    private boolean tlsNoResumption;
+
+    @Option(names = {"--socket-profile"}, description = "TCP options and write strategy for tunneled sockets (THROUGHPUT gathers writes only on JDK 13+): ${COMPLETION-CANDIDATES}", defaultValue = "LATENCY")
+    private SocketProfile socketProfile;
+
+    @Option(names = {"--metrics-port"}, description = "Serve Prometheus metrics at http://127.0.0.1:<port>/metrics (0 = disabled)", defaultValue = "0")
+    private int metricsPort;
+
+    @Option(names = {"--no-reconnect"}, description = "Exit when the control connection is lost instead of reconnecting")
+    private boolean noReconnect;
+
+    @Option(names = {"--reconnect-max-attempts"}, description = "Give up after this many failed reconnect attempts in a row (0 = retry forever)", defaultValue = "0")
+    private int reconnectMaxAttempts;
+
+    @Option(names = {"--heartbeat-timeout-ms"}, description = "Treat the control connection as lost after this long without a message (0 = never)", defaultValue = "5000")
+    private int heartbeatTimeoutMs;
+
+    @Option(names = {"--config"}, description = "JSON file listing many tunnels to run in this process, sharing one I/O engine and metrics registry")
+    private File config;
+
+    @Option(names = {"--max-connections"}, description = "Maximum open connections per tunnel, further requests are rejected; each BLOCKING connection holds two threads (0 = unlimited)", defaultValue = "2048")
+    private int maxConnections;
+
+    @Option(names = {"--bandwidth-limit"}, description = "Maximum bytes per second in each direction per tunnel (0 = unlimited)", defaultValue = "0")
+    private long bandwidthLimit;
+
+    @Option(names = {"--connection-bandwidth-limit"}, description = "Maximum bytes per second in each direction per connection (0 = unlimited)", defaultValue = "0")
+    private long connectionBandwidthLimit;
+
+    @Option(names = {"--connection-rate-limit"}, description = "Maximum new connections per second, further requests are rejected (0 = unlimited)", defaultValue = "0")
+    private int connectionRateLimit;
+
+    @Option(names = {"--admission-concurrency"}, description = "Maximum connections being set up at once; open connections are capped by --max-connections", defaultValue = "64")
+    private int admissionConcurrency;
+
+    @Option(names = {"--admission-queue"}, description = "Maximum connection requests waiting for a handler", defaultValue = "1024")
+    private int admissionQueue;
+
+    @Option(names = {"--admission-timeout-ms"}, description = "Reject connection requests that waited longer than this (0 = never)", defaultValue = "10000")
+    private long admissionTimeoutMs;
+
+    @Option(names = {"--shed-policy"}, description = "What to do when the admission queue is full: ${COMPLETION-CANDIDATES}", defaultValue = "REJECT_NEW")
+    private ClientOptions.ShedPolicy shedPolicy;
+
+    @Option(names = {"--admission-order"}, description = "Admission queue order: ${COMPLETION-CANDIDATES}", defaultValue = "FIFO")
+    private ClientOptions.AdmissionOrder admissionOrder;
+
+    @Option(names = {"--idle-timeout-ms"}, description = "Close tunneled connections with no traffic in either direction for this long (0 = never)", defaultValue = "0")
+    private long idleTimeoutMs;
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new Main()).execute(args));
     }
 
     @Override
     public Integer call() {
         try {
+            BufferPool.heap().setMaxPooledBytes(bufferPoolLimitMb * 1024 * 1024);
+            BufferPool.direct().setMaxPooledBytes(bufferPoolLimitMb * 1024 * 1024);
 
-            Client client = Client.create(localHost, localPort, to, port, secret);
+            // 指标总是注册为JMX MBean，HTTP端点按需开启
+            MetricsRegistry registry = new MetricsRegistry();
+            registry.registerJmx("com.bore");
+            MetricsHttpServer metricsServer = metricsPort > 0 ? new MetricsHttpServer(registry, metricsPort) : null;
 
-            // 添加关闭钩子
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                log.info("Shutting down client...");
-                client.close();
-            }));
+            if (config == null && (localPort == null || to == null)) {
+                throw new IllegalArgumentException("A local port and --to are required unless --config is given");
+            }
+            if (forwardMode == null) {
+                // 多隧道模式下默认使用共享的NIO引擎
+                forwardMode = config != null ? ClientOptions.ForwardMode.NIO : ClientOptions.ForwardMode.BLOCKING;
+            }
 
-            client.listen();
+            ClientOptions options = new ClientOptions()
+                    .setForwardMode(forwardMode)
+                    .setIoThreads(ioThreads)
+                    .setThreadMode(threadMode)
+                    .setWarmPoolEnabled(warmPool)
+                    .setWarmPoolMinSize(warmPoolMin)
+                    .setWarmPoolMaxSize(warmPoolMax)
+                    .setParallelDial(parallelDial)
+                    .setLocalPoolSize(localPool)
+                    .setLocalPoolMaxIdleMs(localPoolIdleMs)
+                    .setBalancePolicy(balancePolicy)
+                    .setHealthCheckIntervalMs(healthCheckIntervalMs)
+                    .setOutlierEjectionFailures(outlierEjectionFailures)
+                    .setOutlierEjectionMs(outlierEjectionMs)
+                    .setMultiplex(multiplex)
+                    .setMuxConnections(muxConnections)
+                    .setBinaryControl(binaryControl)
+                    .setCompression(compress)
+                    .setSocketProfile(socketProfile)
+                    .setMetricsRegistry(registry)
+                    .setHeartbeatTimeoutMs(heartbeatTimeoutMs)
+                    .setReconnectMaxAttempts(reconnectMaxAttempts)
+                    .setMaxConnections(maxConnections)
+                    .setBandwidthLimit(bandwidthLimit)
+                    .setConnectionBandwidthLimit(connectionBandwidthLimit)
+                    .setConnectionRateLimit(connectionRateLimit)
+                    .setAdmissionConcurrency(admissionConcurrency)
+                    .setAdmissionQueueSize(admissionQueue)
+                    .setAdmissionTimeoutMs(admissionTimeoutMs)
+                    .setShedPolicy(shedPolicy)
+                    .setAdmissionOrder(admissionOrder)
+                    .setIdleTimeoutMs(idleTimeoutMs);
+            List<InetSocketAddress> backends = new ArrayList<>();
+            for (String backend : localBackends) {
+                backends.add(TunnelConfig.parseAddress(backend));
+            }
+            options.setLocalBackends(backends);
+            if (tls || tlsCa != null) {
+                options.setTls(TlsConnector.create(tlsCa, !tlsNoResumption).setProtocols(tlsProtocols));
+            }
+            if (config != null) {
+                TunnelGroup group = TunnelGroup.start(TunnelConfig.load(config), options);
+                addShutdownHook(group, metricsServer);
+                group.await();
+            } else if (noReconnect) {
+                Client client = Client.create(localHost, localPort, to, port, secret, options);
+                addShutdownHook(client, metricsServer);
+                client.listen();
+            } else {
+                ClientSupervisor supervisor = ClientSupervisor.create(localHost, localPort, to, port, secret, options);
+                addShutdownHook(supervisor, metricsServer);
+                supervisor.run();
+            }
             return 0;
         } catch (Exception e) {
             log.error("Error: {}", e.getMessage(), e);
             return 1;
         }
     }
-}
\ No newline at end of file
+
+    private static void addShutdownHook(Closeable client, MetricsHttpServer metricsServer) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            log.info("Shutting down client...");
+            try {
+                client.close();
+            } catch (IOException e) {
+                // 忽略关闭错误
+            }
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
+        }));
+    }
+}
@@ -5,20 +5,41 @@ import com.bore.shared.Delimited;
 import com.bore.shared.ServerMessage;
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.TimeoutException;
 
 /**
  * 用于认证具有密钥的客户端的MAC包装器
+ *
+ * 每个线程使用从已初始化的Mac克隆出的独立实例和计算缓冲区，并发握手之间没有锁；
+ * 十六进制编解码查表完成，验证时直接比较十六进制字符，除应答字符串外不分配内存。
+ * 虚拟线程模式下每个连接是新线程，每次握手克隆一次Mac，仍然不需要加锁。
  */
 public class Authenticator {
-    private final Mac hmac;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // 字符到半字节的映射，非十六进制字符为-1；大小写都接受
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES[Character.forDigit(i, 16)] = (byte) i;
+            HEX_VALUES[Character.toUpperCase(Character.forDigit(i, 16))] = (byte) i;
+        }
+    }
+
+    // 已用密钥初始化的原型，只用于克隆，不直接计算
+    private final Mac prototype;
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(this::newState);
 
     /**
      * 从密钥生成认证器
@@ -28,45 +49,67 @@ public class Authenticator {
             // 对密钥进行SHA-256哈希处理
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
             byte[] hashedSecret = digest.digest(secret.getBytes(StandardCharsets.UTF_8));
-            
+
             // 创建HMAC-SHA256实例
             SecretKeySpec keySpec = new SecretKeySpec(hashedSecret, "HmacSHA256");
-            hmac = Mac.getInstance("HmacSHA256");
-            hmac.init(keySpec);
+            prototype = Mac.getInstance("HmacSHA256");
+            prototype.init(keySpec);
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
             throw new RuntimeException("Failed to initialize authenticator", e);
         }
     }
 
+    private State newState() {
+        Mac mac;
+        try {
+            mac = (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("HmacSHA256 provider does not support cloning", e);
+        }
+        return new State(mac);
+    }
+
     /**
      * 为挑战生成回复消息
      */
     public String answer(UUID challenge) {
-        byte[] challengeBytes = uuidToBytes(challenge);
-        byte[] hmacResult;
-        synchronized (hmac) {
-            hmacResult = hmac.doFinal(challengeBytes);
+        State current = state.get();
+        byte[] tag = current.compute(challenge);
+        char[] hex = new char[tag.length * 2];
+        for (int i = 0; i < tag.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(tag[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[tag[i] & 0xf];
         }
-        return bytesToHex(hmacResult);
+        return new String(hex);
     }
 
     /**
      * 验证对挑战的回复
      */
     public boolean validate(UUID challenge, String tag) {
-        try {
-            byte[] tagBytes = hexToBytes(tag);
-            byte[] challengeBytes = uuidToBytes(challenge);
-            byte[] expectedTag;
-            synchronized (hmac) {
-                expectedTag = hmac.doFinal(challengeBytes);
-            }
-            
-            // 常量时间比较以防止计时攻击
-            return constantTimeEquals(tagBytes, expectedTag);
-        } catch (IllegalArgumentException e) {
+        State current = state.get();
+        byte[] expected = current.compute(challenge);
+        if (tag == null || tag.length() != expected.length * 2) {
             return false;
         }
+
+        // 常量时间比较以防止计时攻击：无论在哪个位置不同或出现非法字符，都比较完全部字符
+        int diff = 0;
+        for (int i = 0; i < expected.length; i++) {
+            int high = nibble(tag.charAt(i * 2));
+            int low = nibble(tag.charAt(i * 2 + 1));
+            diff |= (high | low) & 0x100;
+            diff |= ((high << 4) | low) ^ (expected[i] & 0xff);
+        }
+        return diff == 0;
+    }
+
+    /**
+     * 十六进制字符的值，非法字符返回带0x100标记的值
+     */
+    private static int nibble(char c) {
+        int value = c < 128 ? HEX_VALUES[c] : -1;
+        return value < 0 ? 0x100 : value;
     }
 
     /**
@@ -83,52 +126,53 @@ public class Authenticator {
         stream.send(ClientMessage.authenticate(tag));
     }
 
-    // 辅助方法
-    private static byte[] uuidToBytes(UUID uuid) {
-        long msb = uuid.getMostSignificantBits();
-        long lsb = uuid.getLeastSignificantBits();
-        byte[] buffer = new byte[16];
-        
-        for (int i = 0; i < 8; i++) {
-            buffer[i] = (byte) (msb >>> ((7 - i) * 8));
+    /**
+     * 作为服务器，向客户端发送挑战并验证其回复
+     */
+    public void serverHandshake(Delimited stream) throws IOException, TimeoutException {
+        UUID challenge = UUID.randomUUID();
+        stream.send(ServerMessage.challenge(challenge));
+        ClientMessage message = stream.recvTimeout(ClientMessage.class);
+        if (message == null || message.getType() != ClientMessage.MessageType.AUTHENTICATE) {
+            throw new IOException("Server requires secret, but no secret was provided");
         }
-        for (int i = 0; i < 8; i++) {
-            buffer[i + 8] = (byte) (lsb >>> ((7 - i) * 8));
+        if (!validate(challenge, message.getAuthenticateTag())) {
+            throw new IOException("Invalid secret");
         }
-        
-        return buffer;
     }
 
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder result = new StringBuilder();
-        for (byte b : bytes) {
-            result.append(String.format("%02x", b));
-        }
-        return result.toString();
-    }
+    /**
+     * 线程私有的Mac实例和缓冲区
+     */
+    private static final class State {
+        private final Mac mac;
+        private final byte[] challenge = new byte[16];
+        private final byte[] tag;
 
-    private static byte[] hexToBytes(String hex) {
-        if (hex.length() % 2 != 0) {
-            throw new IllegalArgumentException("Invalid hex string");
+        private State(Mac mac) {
+            this.mac = mac;
+            this.tag = new byte[mac.getMacLength()];
         }
-        
-        byte[] result = new byte[hex.length() / 2];
-        for (int i = 0; i < result.length; i++) {
-            int index = i * 2;
-            result[i] = (byte) Integer.parseInt(hex.substring(index, index + 2), 16);
-        }
-        return result;
-    }
 
-    private static boolean constantTimeEquals(byte[] a, byte[] b) {
-        if (a.length != b.length) {
-            return false;
+        /**
+         * 计算挑战的MAC，返回的数组属于本线程，下次计算时被覆盖
+         */
+        private byte[] compute(UUID challenge) {
+            writeLong(this.challenge, 0, challenge.getMostSignificantBits());
+            writeLong(this.challenge, 8, challenge.getLeastSignificantBits());
+            mac.update(this.challenge);
+            try {
+                mac.doFinal(tag, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+            return tag;
         }
-        
-        int result = 0;
-        for (int i = 0; i < a.length; i++) {
-            result |= a[i] ^ b[i];
+
+        private static void writeLong(byte[] buffer, int offset, long value) {
+            for (int i = 0; i < 8; i++) {
+                buffer[offset + i] = (byte) (value >>> ((7 - i) * 8));
+            }
         }
-        return result == 0;
     }
-}
\ No newline at end of file
+}
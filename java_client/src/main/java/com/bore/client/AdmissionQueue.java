@@ -0,0 +1,175 @@
+package com.bore.client;
+
+import com.bore.metrics.ClientMetrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * 连接请求的准入队列，位于控制连接和连接处理之间
+ *
+ * 同时建立中的连接数不超过concurrency，其余请求在有界队列中等待，不为排队的请求创建线程；
+ * 队列满时按策略拒绝新请求或丢弃最早的请求，等待超时的请求在出队时拒绝。
+ * 处理方在连接建立完成、开始转发时释放名额，已建立的连接数由ClientOptions.maxConnections限制（默认2048），
+ * 请求到达和出队时各检查一次。
+ */
+class AdmissionQueue {
+    private final int concurrency;
+    private final int capacity;
+    private final long timeoutNanos;
+    private final ClientOptions.ShedPolicy shedPolicy;
+    private final ClientOptions.AdmissionOrder order;
+    private final ExecutorService executor;
+    private final BiConsumer<UUID, Runnable> handler;
+    private final BiConsumer<UUID, String> rejecter;
+    private final ClientMetrics metrics;
+
+    // 以下字段由this保护
+    private final Deque<Entry> queue = new ArrayDeque<>();
+    private int running;
+
+    AdmissionQueue(ClientOptions options, ExecutorService executor, BiConsumer<UUID, Runnable> handler,
+                   BiConsumer<UUID, String> rejecter, ClientMetrics metrics) {
+        this.concurrency = Math.max(1, options.getAdmissionConcurrency());
+        this.capacity = Math.max(0, options.getAdmissionQueueSize());
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.getAdmissionTimeoutMs());
+        this.shedPolicy = options.getShedPolicy();
+        this.order = options.getAdmissionOrder();
+        this.executor = executor;
+        this.handler = handler;
+        this.rejecter = rejecter;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 提交一个连接请求，不会阻塞控制连接的读取
+     */
+    void submit(UUID id) {
+        Entry entry = new Entry(id, System.nanoTime());
+        Entry dropped = null;
+        boolean start = false;
+        boolean full = false;
+        synchronized (this) {
+            if (running < concurrency) {
+                running++;
+                start = true;
+            } else if (queue.size() < capacity) {
+                queue.addLast(entry);
+                metrics.admissionQueued(1);
+            } else if (shedPolicy == ClientOptions.ShedPolicy.DROP_OLDEST && capacity > 0) {
+                dropped = queue.pollFirst();
+                queue.addLast(entry);
+            } else {
+                full = true;
+            }
+        }
+
+        if (dropped != null) {
+            metrics.recordAdmissionShed(ClientMetrics.ShedReason.DROPPED);
+            rejecter.accept(dropped.id, "dropped from full admission queue");
+        }
+        if (full) {
+            metrics.recordAdmissionShed(ClientMetrics.ShedReason.QUEUE_FULL);
+            rejecter.accept(id, "admission queue full (" + capacity + ")");
+        }
+        if (start) {
+            dispatch(entry);
+        }
+    }
+
+    private void dispatch(Entry entry) {
+        Permit permit = new Permit();
+        try {
+            executor.submit(() -> {
+                metrics.recordAdmissionWait(System.nanoTime() - entry.enqueuedNanos);
+                try {
+                    handler.accept(entry.id, permit);
+                } finally {
+                    permit.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 客户端已关闭
+            permit.run();
+        }
+    }
+
+    /**
+     * 释放一个处理名额：取出下一个未超时的请求继续处理，超时的请求在锁外拒绝
+     */
+    private void release() {
+        List<Entry> expired = null;
+        Entry next = null;
+        long now = System.nanoTime();
+        synchronized (this) {
+            while (!queue.isEmpty()) {
+                // 积压超过一半时优先处理最新的请求，最早的请求多半已在服务器端超时
+                Entry candidate = order == ClientOptions.AdmissionOrder.ADAPTIVE_LIFO && queue.size() > capacity / 2
+                        ? queue.pollLast()
+                        : queue.pollFirst();
+                metrics.admissionQueued(-1);
+                if (timeoutNanos > 0 && now - candidate.enqueuedNanos > timeoutNanos) {
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(candidate);
+                    continue;
+                }
+                next = candidate;
+                break;
+            }
+            if (next == null) {
+                running--;
+            }
+        }
+        if (expired != null) {
+            for (Entry entry : expired) {
+                metrics.recordAdmissionShed(ClientMetrics.ShedReason.TIMEOUT);
+                rejecter.accept(entry.id, "waited too long in admission queue");
+            }
+        }
+        if (next != null) {
+            dispatch(next);
+        }
+    }
+
+    /**
+     * 清空队列，用于客户端关闭时
+     */
+    synchronized void clear() {
+        metrics.admissionQueued(-queue.size());
+        queue.clear();
+    }
+
+    /**
+     * 一个请求占用的处理名额，只有第一次释放生效
+     */
+    private final class Permit implements Runnable {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        @Override
+        public void run() {
+            if (released.compareAndSet(false, true)) {
+                release();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final UUID id;
+        private final long enqueuedNanos;
+
+        private Entry(UUID id, long enqueuedNanos) {
+            this.id = id;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
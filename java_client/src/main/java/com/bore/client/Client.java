@@ -1,19 +1,44 @@
 package com.bore.client;
 
 import com.bore.auth.Authenticator;
+import com.bore.compress.Compression;
+import com.bore.metrics.ClientMetrics;
+import com.bore.metrics.Histogram;
+import com.bore.metrics.MetricsRegistry;
+import com.bore.mux.MuxConnection;
+import com.bore.mux.MuxStream;
+import com.bore.nio.SelectorEngine;
 import com.bore.shared.ClientMessage;
 import com.bore.shared.Constants;
 import com.bore.shared.Delimited;
+import com.bore.shared.Feature;
 import com.bore.shared.ServerMessage;
+import com.bore.util.BufferPool;
+import com.bore.util.IdleTimeout;
+import com.bore.util.RateLimiter;
 import com.bore.util.StreamUtils;
+import com.bore.util.ThreadUtils;
+import com.bore.util.TimerWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongConsumer;
 
 /**
  * 客户端的状态结构
@@ -21,13 +46,42 @@ import java.util.concurrent.*;
 public class Client implements Closeable {
     private static final Logger logger = LoggerFactory.getLogger(Client.class);
 
-    private Delimited conn;
+    // 同时处理拒绝的任务数和排队的拒绝数上限
+    private static final int MAX_REJECT_WORKERS = 4;
+    private static final int MAX_QUEUED_REJECTS = 1024;
+
+    // 字节限速的最小桶容量，与最大的复制缓冲区相同
+    private static final long MIN_BANDWIDTH_BURST = 64 * 1024;
+
+    private volatile Delimited conn;
+    // 串行化reconnect，与客户端监视器分开
+    private final Object reconnectLock = new Object();
     private final String to;
-    private final String localHost;
-    private final int localPort;
-    private final int remotePort;
+    private volatile int remotePort;
     private final Authenticator auth;
     private final ExecutorService executor;
+    private final ClientOptions options;
+    private final SelectorEngine engine;
+    // 共享的引擎由创建者关闭
+    private final boolean ownsEngine;
+    private final WarmPool warmPool;
+    private final LocalBalancer localBackends;
+    // 数据连接是否使用二进制控制帧
+    private final boolean binaryControl;
+    // 多路复用的数据连接，每个槽位保存已建立或正在建立的连接，未协商成功时为null
+    private final AtomicReferenceArray<CompletableFuture<MuxConnection>> muxConnections;
+    // 数据连接的压缩编解码，未协商成功或使用多路复用时为null
+    private final Compression compression;
+    private final ClientMetrics metrics;
+    private final Set<Feature> features;
+    // 隧道级限速，未配置时为null
+    private final RateLimiter sendLimiter;
+    private final RateLimiter receiveLimiter;
+    private final RateLimiter connectionRate;
+    private final Queue<PendingReject> rejectQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger rejectQueueSize = new AtomicInteger();
+    private final AtomicInteger rejectWorkers = new AtomicInteger();
+    private final AdmissionQueue admission;
     private volatile boolean running = true;
 
     /**
@@ -35,48 +89,180 @@ public class Client implements Closeable {
      */
     public static Client create(String localHost, int localPort, String to, int port, String secret)
             throws IOException, TimeoutException {
-        Socket socket = StreamUtils.connectWithTimeout(to, Constants.CONTROL_PORT, Constants.NETWORK_TIMEOUT_MS);
-        Delimited stream = new Delimited(socket);
+        return create(localHost, localPort, to, port, secret, new ClientOptions());
+    }
+
+    /**
+     * 使用指定配置创建一个新的客户端
+     */
+    public static Client create(String localHost, int localPort, String to, int port, String secret,
+                                ClientOptions options) throws IOException, TimeoutException {
+        if (options.getThreadMode() == ClientOptions.ThreadMode.VIRTUAL && !ThreadUtils.isVirtualThreadSupported()) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads require Java 21+ (or --enable-preview on 19/20), running on "
+                            + System.getProperty("java.version"));
+        }
 
         Authenticator auth = null;
         if (secret != null && !secret.isEmpty()) {
             auth = new Authenticator(secret);
-            auth.clientHandshake(stream);
         }
 
-        stream.send(ClientMessage.hello(port));
-        ServerMessage response = stream.recvTimeout(ServerMessage.class);
+        ControlSession session = handshake(to, port, auth, options);
+        logger.info("Connected to server, remote port: {}", session.remotePort);
+        logger.info("Listening at {}:{}", to, session.remotePort);
+        if (session.features.contains(Feature.MULTIPLEX)) {
+            logger.info("Multiplexing connections over {} server connections", options.getMuxConnections());
+        }
+        if (session.features.contains(Feature.BINARY)) {
+            logger.info("Using binary control frames");
+        }
+        if (options.getTls() != null) {
+            logger.info("Using TLS{}", options.getTls().isSessionResumption() ? " with session resumption" : "");
+        }
+        if (session.features.contains(Feature.COMPRESS) && !session.features.contains(Feature.MULTIPLEX)) {
+            logger.info("Compressing tunneled data");
+        }
+        if (!options.getLocalBackends().isEmpty()) {
+            logger.info("Balancing connections across {} local backends ({})", options.getLocalBackends().size() + 1,
+                    options.getBalancePolicy());
+        }
+        try {
+            return new Client(session.stream, to, localHost, localPort, session.remotePort, auth, options,
+                    session.features);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(session.stream);
+            throw e;
+        }
+    }
 
-        if (response == null) {
-            throw new IOException("Unexpected EOF");
+    /**
+     * 建立控制连接并完成Hello交换，请求的协议扩展不被支持时回退为标准协议
+     */
+    private static ControlSession handshake(String to, int port, Authenticator auth, ClientOptions options)
+            throws IOException, TimeoutException {
+        Set<Feature> requested = EnumSet.noneOf(Feature.class);
+        if (options.isMultiplex()) {
+            requested.add(Feature.MULTIPLEX);
+        }
+        if (options.isBinaryControl()) {
+            requested.add(Feature.BINARY);
+        }
+        if (options.isCompression()) {
+            requested.add(Feature.COMPRESS);
+        }
+
+        Delimited stream = connectControl(to, auth, options);
+        ServerMessage response = null;
+        if (!requested.isEmpty()) {
+            // 不支持协议扩展的服务器无法解析ExtendedHello，会直接断开连接或不作应答
+            stream.send(ClientMessage.extendedHello(port, requested));
+            try {
+                response = stream.recvTimeout(ServerMessage.class);
+            } catch (IOException | TimeoutException e) {
+                response = null;
+            }
+            if (response == null) {
+                logger.warn("Server does not support protocol extensions {}, falling back to the standard protocol",
+                        requested);
+                closeQuietly(stream);
+                stream = connectControl(to, auth, options);
+            }
         }
+        try {
+            if (response == null) {
+                stream.send(ClientMessage.hello(port));
+                response = stream.recvTimeout(ServerMessage.class);
+            }
+
+            if (response == null) {
+                throw new IOException("Unexpected EOF");
+            }
+
+            switch (response.getType()) {
+                case HELLO:
+                case EXTENDED_HELLO:
+                    if (response.getFeatures().contains(Feature.BINARY)) {
+                        stream.setBinary(true);
+                    }
+                    return new ControlSession(stream, response.getHelloPort(), response.getFeatures());
 
-        switch (response.getType()) {
-            case HELLO:
-                int remotePort = response.getHelloPort();
-                logger.info("Connected to server, remote port: {}", remotePort);
-                logger.info("Listening at {}:{}", to, remotePort);
-                return new Client(stream, to, localHost, localPort, remotePort, auth);
+                case ERROR:
+                    throw new IOException("Server error: " + response.getErrorMessage());
 
-            case ERROR:
-                throw new IOException("Server error: " + response.getErrorMessage());
+                case CHALLENGE:
+                    throw new IOException("Server requires authentication, but no client secret was provided");
 
-            case CHALLENGE:
-                throw new IOException("Server requires authentication, but no client secret was provided");
+                default:
+                    throw new IOException("Unexpected initial non-hello message");
+            }
+        } catch (IOException | TimeoutException | RuntimeException e) {
+            closeQuietly(stream);
+            throw e;
+        }
+    }
 
-            default:
-                throw new IOException("Unexpected initial non-hello message");
+    private static Delimited connectControl(String to, Authenticator auth, ClientOptions options)
+            throws IOException, TimeoutException {
+        Socket socket = StreamUtils.connectWithTimeout(to, options.getControlPort(), Constants.NETWORK_TIMEOUT_MS,
+                options.getSocketProfile());
+        if (options.getTls() != null) {
+            socket = options.getTls().connect(socket, to, options.getControlPort(), Constants.NETWORK_TIMEOUT_MS);
         }
+        Delimited stream = new Delimited(socket);
+        if (auth != null) {
+            try {
+                auth.clientHandshake(stream);
+            } catch (IOException | TimeoutException | RuntimeException e) {
+                closeQuietly(stream);
+                throw e;
+            }
+        }
+        return stream;
     }
 
-    private Client(Delimited conn, String to, String localHost, int localPort, int remotePort, Authenticator auth) {
+    private Client(Delimited conn, String to, String localHost, int localPort, int remotePort, Authenticator auth,
+                   ClientOptions options, Set<Feature> features) throws IOException {
         this.conn = conn;
         this.to = to;
-        this.localHost = localHost;
-        this.localPort = localPort;
         this.remotePort = remotePort;
         this.auth = auth;
-        this.executor = Executors.newCachedThreadPool();
+        this.executor = options.getThreadMode() == ClientOptions.ThreadMode.VIRTUAL
+                ? ThreadUtils.newVirtualThreadPerTaskExecutor()
+                : Executors.newCachedThreadPool();
+        this.options = options;
+        MetricsRegistry registry = options.getMetricsRegistry() != null
+                ? options.getMetricsRegistry()
+                : new MetricsRegistry();
+        // remote_port标签标识隧道，取首次分配的端口；重连后端口可能改变，当前端口由单独的仪表导出
+        this.metrics = new ClientMetrics(registry, "local", localHost + ":" + localPort,
+                "remote_port", String.valueOf(remotePort));
+        metrics.remotePort(() -> this.remotePort);
+        if (options.getForwardMode() != ClientOptions.ForwardMode.NIO) {
+            this.engine = null;
+            this.ownsEngine = false;
+        } else if (options.getSelectorEngine() != null) {
+            this.engine = options.getSelectorEngine();
+            this.ownsEngine = false;
+        } else {
+            this.engine = new SelectorEngine(options.getIoThreads());
+            this.ownsEngine = true;
+        }
+        this.warmPool = options.isWarmPoolEnabled()
+                ? new WarmPool(this::openRemote, executor, options.getWarmPoolMinSize(), options.getWarmPoolMaxSize(),
+                        options.getWarmPoolMaxIdleMs())
+                : null;
+        this.localBackends = new LocalBalancer(localHost, localPort, options, executor, metrics);
+        this.features = features;
+        this.sendLimiter = bandwidthLimiter(options.getBandwidthLimit());
+        this.receiveLimiter = bandwidthLimiter(options.getBandwidthLimit());
+        this.connectionRate = options.getConnectionRateLimit() > 0
+                ? new RateLimiter(options.getConnectionRateLimit(), Math.max(1, options.getConnectionRateLimit()))
+                : null;
+        this.admission = new AdmissionQueue(options, executor, this::handleConnection, this::reject, metrics);
+        this.binaryControl = features.contains(Feature.BINARY);
+        this.muxConnections = features.contains(Feature.MULTIPLEX) ? new AtomicReferenceArray<>(Math.max(1, options.getMuxConnections())) : null;
+        this.compression = features.contains(Feature.COMPRESS) && muxConnections == null ? new Compression(metrics) : null;
     }
 
     /**
@@ -87,103 +273,715 @@ public class Client implements Closeable {
     }
 
     /**
-     * 启动客户端，监听新连接
+     * 启动客户端，监听新连接；控制连接断开后关闭客户端
      */
     public void listen() throws IOException {
         try {
-            logger.debug("Starting to listen for messages from server");
-            while (running) {
-                ServerMessage message = conn.recv(ServerMessage.class);
-                if (message.getType() == null) {
-                    // Instead of breaking immediately, let's try to reconnect or wait
-                    // This could be a temporary network issue
-                    try {
-                        Thread.sleep(500); // Wait a bit before retrying
-                        continue;
-                    } catch (InterruptedException ie) {
-                        if (!running) break;
-                    }
-                }
+            serve();
+        } catch (IOException e) {
+            if (running) {
+                throw e;
+            }
+        } finally {
+            close();
+        }
+    }
 
-                logger.debug("Received message of type: {}", message.getType());
+    /**
+     * 处理控制连接上的消息，直到控制连接断开或客户端被关闭
+     *
+     * 控制连接断开时抛出IOException，但不关闭客户端：已建立的数据连接继续转发，可以调用reconnect恢复。
+     * 超过心跳超时时间没有收到任何消息时视为连接丢失。
+     */
+    public void serve() throws IOException {
+        logger.debug("Starting to listen for messages from server");
+        Delimited control = conn;
+        if (control == null) {
+            throw new IOException("Client is closed");
+        }
+        if (options.getHeartbeatTimeoutMs() > 0) {
+            control.getSocket().setSoTimeout(options.getHeartbeatTimeoutMs());
+        }
+        while (running) {
+            ServerMessage message;
+            try {
+                message = control.recv(ServerMessage.class);
+            } catch (SocketTimeoutException e) {
+                throw new IOException("No heartbeat from server for " + options.getHeartbeatTimeoutMs() + " ms");
+            }
+            if (message == null) {
+                throw new IOException("Control connection closed by server");
+            }
+            if (message.getType() == null) {
+                // 较新的服务器可能发送本客户端不认识的消息
+                logger.debug("Ignoring unknown message from server");
+                continue;
+            }
 
-                switch (message.getType()) {
-                    case HELLO:
-                        logger.warn("Unexpected hello");
-                        break;
+            logger.debug("Received message of type: {}", message.getType());
+            metrics.recordControlMessage(message.getType());
 
-                    case CHALLENGE:
-                        logger.warn("Unexpected challenge");
-                        break;
+            switch (message.getType()) {
+                case HELLO:
+                case EXTENDED_HELLO:
+                    logger.warn("Unexpected hello");
+                    break;
 
-                    case HEARTBEAT:
-                        // 心跳包，记录日志但不需要特殊处理
-                        logger.debug("Received heartbeat from server");
-                        break;
+                case CHALLENGE:
+                    logger.warn("Unexpected challenge");
+                    break;
 
-                    case CONNECTION:
-                        UUID id = message.getConnectionId();
-                        logger.info("Received connection request with ID: {}", id);
-                        executor.submit(() -> handleConnection(id));
-                        break;
+                case HEARTBEAT:
+                    // 心跳包，记录日志但不需要特殊处理
+                    logger.debug("Received heartbeat from server");
+                    break;
 
-                    case ERROR:
-                        logger.error("Server error: {}", message.getErrorMessage());
+                case CONNECTION:
+                    UUID id = message.getConnectionId();
+                    logger.info("Received connection request with ID: {}", id);
+                    if (atConnectionLimit()) {
+                        reject(id, "too many open connections (" + options.getMaxConnections() + ")");
+                        break;
+                    }
+                    if (connectionRate != null && !connectionRate.tryAcquire(1)) {
+                        reject(id, "connection rate above " + connectionRate.getRatePerSecond() + "/s");
                         break;
+                    }
+                    admission.submit(id);
+                    break;
+
+                case ERROR:
+                    logger.error("Server error: {}", message.getErrorMessage());
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 重新建立控制连接并请求与之前相同的公开端口，已建立的数据连接和连接池不受影响
+     *
+     * 数据连接的控制帧格式、多路复用和压缩在创建时按协商结果确定，服务器授予的协议扩展改变时放弃新会话并抛出IOException
+     */
+    public void reconnect() throws IOException, TimeoutException {
+        // 握手可能耗时数秒，只用独立的锁串行化重连，不阻塞使用客户端监视器的连接处理和close
+        synchronized (reconnectLock) {
+            if (!running) {
+                throw new IOException("Client is closed");
+            }
+            closeQuietly(conn);
+            ControlSession session = handshake(to, remotePort, auth, options);
+            if (!session.features.equals(features)) {
+                closeQuietly(session.stream);
+                throw new IOException("Server now supports protocol extensions " + session.features + " instead of "
+                        + features);
+            }
+            synchronized (this) {
+                if (!running) {
+                    closeQuietly(session.stream);
+                    throw new IOException("Client is closed");
                 }
+                conn = session.stream;
+            }
+            if (session.remotePort != remotePort) {
+                logger.warn("Remote port {} is no longer available, now listening at {}:{}", remotePort, to,
+                        session.remotePort);
+                remotePort = session.remotePort;
+            } else {
+                logger.info("Reconnected to server, listening at {}:{}", to, remotePort);
             }
-        } finally {
-            close();
         }
     }
 
-    private void handleConnection(UUID id) {
+    /**
+     * 建立并转发一个隧道连接，admitted在连接建立完成后调用，释放准入队列的名额
+     */
+    private void handleConnection(UUID id, Runnable admitted) {
         logger.info("New connection: {}", id);
+        // 排队期间其他连接可能已建立，出队时再检查一次，已建立的连接数最多超出准入并发数
+        if (atConnectionLimit()) {
+            reject(id, "too many open connections (" + options.getMaxConnections() + ")");
+            return;
+        }
+        ClientMetrics.Connection stats = metrics.open();
+        if (muxConnections != null) {
+            handleMultiplexed(id, stats, admitted);
+            return;
+        }
 
-        try {
-            // 连接到服务器的控制端口
-            Socket remoteConn = StreamUtils.connectWithTimeout(to, Constants.CONTROL_PORT, Constants.NETWORK_TIMEOUT_MS);
-            Delimited remoteStream = new Delimited(remoteConn);
+        Delimited remoteStream = null;
+        LocalPool.Lease local = null;
+        boolean handedOff = false;
+        IdleTimeout idle = idleTimeout();
 
-            // 如果需要，进行认证
-            if (auth != null) {
-                auth.clientHandshake(remoteStream);
+        // 在远程握手的同时拨号本地服务
+        CompletableFuture<LocalPool.Lease> localDial = null;
+        if (options.isParallelDial()) {
+            localDial = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return openLocal();
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+
+        try {
+            // 优先使用预热池中已认证的连接，只需发送接受消息
+            if (warmPool != null) {
+                remoteStream = warmPool.take();
+            }
+            if (remoteStream == null) {
+                remoteStream = openRemote();
             }
 
             // 发送接受连接的消息
             remoteStream.send(ClientMessage.accept(id));
 
             // 连接到本地服务
-            Socket localConn = StreamUtils.connectWithTimeout(localHost, localPort, Constants.NETWORK_TIMEOUT_MS);
+            local = localDial != null ? awaitLocal(localDial) : openLocal();
+            SocketChannel localConn = local.channel;
+
+            // 将任何缓冲数据写入本地连接，压缩时缓冲数据和本地服务的问候在编解码时处理
+            byte[] bufferedData = remoteStream.detach();
+            if (compression == null && bufferedData.length > 0) {
+                localConn.socket().getOutputStream().write(bufferedData);
+                stats.received().accept(bufferedData.length);
+            }
 
-            // 将任何缓冲数据写入本地连接
-            byte[] bufferedData = remoteStream.getAvailableData();
-            if (bufferedData.length > 0) {
-                localConn.getOutputStream().write(bufferedData);
-                localConn.getOutputStream().flush();
+            // 将本地服务主动发送的数据写入远程连接
+            if (compression == null && local.greeting.length > 0) {
+                remoteStream.getSocket().getOutputStream().write(local.greeting);
+                stats.sent().accept(local.greeting.length);
             }
 
+            stats.ready();
+            admitted.run();
+
             // 在两个连接之间双向复制数据
-            StreamUtils.copyBidirectional(localConn, remoteConn);
+            Socket remoteSocket = remoteStream.getSocket();
+            SocketChannel remoteConn = remoteSocket.getChannel();
+            RateLimiter sendLimit = connectionLimit(sendLimiter);
+            RateLimiter receiveLimit = connectionLimit(receiveLimiter);
+            if (compression != null || options.getTls() != null) {
+                // 压缩只在流复制中实现；TLS套接字的getChannel()返回底层的明文通道，不能直接读写。各转发模式都使用阻塞复制
+                watchIdle(idle, id, localConn, remoteSocket);
+                LongConsumer sent = throttled(touching(stats.sent(), idle), sendLimit);
+                LongConsumer received = throttled(touching(stats.received(), idle), receiveLimit);
+                if (compression != null) {
+                    copyCompressed(localConn.socket(), remoteSocket, bufferedData, local.greeting, sent, received);
+                } else {
+                    StreamUtils.copyBidirectional(localConn.socket(), remoteSocket, executor,
+                            options.getSocketProfile(), sent, received);
+                }
+                connectionExited(id, stats);
+                return;
+            }
+            switch (options.getForwardMode()) {
+                case NIO:
+                    // 交给非阻塞引擎转发，不再占用当前线程
+                    LocalPool.Lease lease = local;
+                    Closeable tunnel = engine.forward(localConn, remoteConn, () -> {
+                                cancelIdle(idle);
+                                closeQuietly(lease);
+                                connectionExited(id, stats);
+                            }, touching(stats.sent(), idle), touching(stats.received(), idle),
+                            sendLimit, receiveLimit);
+                    handedOff = true;
+                    watchIdle(idle, id, tunnel);
+                    return;
+                case DIRECT:
+                    watchIdle(idle, id, localConn, remoteConn);
+                    StreamUtils.copyBidirectional(localConn, remoteConn, executor,
+                            throttled(touching(stats.sent(), idle), sendLimit),
+                            throttled(touching(stats.received(), idle), receiveLimit));
+                    break;
+                default:
+                    watchIdle(idle, id, localConn, remoteConn);
+                    StreamUtils.copyBidirectional(localConn.socket(), remoteConn.socket(), executor,
+                            options.getSocketProfile(), throttled(touching(stats.sent(), idle), sendLimit),
+                            throttled(touching(stats.received(), idle), receiveLimit));
+                    break;
+            }
+
+            connectionExited(id, stats);
+        } catch (Exception e) {
+            stats.close(true);
+            logger.warn("Connection exited with error: {}", e.getMessage());
+        } finally {
+            if (!handedOff) {
+                cancelIdle(idle);
+                closeQuietly(remoteStream);
+                if (local != null) {
+                    closeQuietly(local);
+                } else if (localDial != null) {
+                    // 远程握手失败时，本地拨号完成后再关闭
+                    localDial.thenAccept(Client::closeQuietly);
+                }
+            }
+        }
+    }
+
+    /**
+     * 经由压缩编解码双向复制数据，计数器报告的是压缩前的字节数，限速也按压缩前的字节计算
+     *
+     * buffered为握手时已从远程连接读入的帧，greeting为本地服务主动发送的数据
+     */
+    private void copyCompressed(Socket localSocket, Socket remoteSocket, byte[] buffered, byte[] greeting,
+                                LongConsumer sent, LongConsumer received) throws IOException {
+        InputStream decoder = compression.decoder(buffered, remoteSocket.getInputStream());
+        OutputStream encoder = compression.encoder(remoteSocket.getOutputStream());
+        try {
+            if (greeting.length > 0) {
+                encoder.write(greeting);
+                sent.accept(greeting.length);
+            }
+            StreamUtils.copyBidirectional(localSocket, remoteSocket, executor, options.getSocketProfile(),
+                    sent, received, decoder, encoder);
+        } finally {
+            closeQuietly(decoder);
+            closeQuietly(encoder);
+        }
+    }
 
-            logger.info("Connection exited: {}", id);
+    /**
+     * 在多路复用连接上打开逻辑流并与本地连接对接，不需要新的TCP连接和认证握手
+     *
+     * 打开流只需写入一帧，因此不使用并行拨号；转发方式固定为阻塞复制
+     */
+    private void handleMultiplexed(UUID id, ClientMetrics.Connection stats, Runnable admitted) {
+        MuxStream stream = null;
+        LocalPool.Lease local = null;
+        IdleTimeout idle = idleTimeout();
+        try {
+            stream = muxConnection().open(id);
+
+            local = openLocal();
+            SocketChannel localConn = local.channel;
+            if (local.greeting.length > 0) {
+                stream.write(local.greeting, 0, local.greeting.length);
+                stats.sent().accept(local.greeting.length);
+            }
+
+            stats.ready();
+            admitted.run();
+            // 关闭本地连接结束阻塞在本地读写上的一方；等待发送窗口的一方不会因此醒来，需要同时中止流
+            MuxStream spliced = stream;
+            watchIdle(idle, id, localConn, spliced::reset);
+            stream.splice(localConn.socket(), executor,
+                    throttled(touching(stats.sent(), idle), connectionLimit(sendLimiter)),
+                    throttled(touching(stats.received(), idle), connectionLimit(receiveLimiter)));
+            connectionExited(id, stats);
         } catch (Exception e) {
+            stats.close(true);
             logger.warn("Connection exited with error: {}", e.getMessage());
+            if (stream != null) {
+                stream.reset();
+            }
+        } finally {
+            cancelIdle(idle);
+            closeQuietly(local);
+        }
+    }
+
+    /**
+     * 拒绝连接请求：接受后立即关闭，使服务器马上断开外部连接，而不是等待超时
+     *
+     * 拒绝本身也需要一次数据连接，因此排队后由少量任务依次处理；队列满时只忽略请求
+     */
+    private boolean atConnectionLimit() {
+        int maxConnections = options.getMaxConnections();
+        return maxConnections > 0 && metrics.getActiveConnections() >= maxConnections;
+    }
+
+    private void reject(UUID id, String reason) {
+        logger.warn("Rejecting connection {}: {}", id, reason);
+        metrics.recordRejectedConnection();
+        if (rejectQueueSize.incrementAndGet() > MAX_QUEUED_REJECTS) {
+            rejectQueueSize.decrementAndGet();
+            return;
+        }
+        rejectQueue.add(new PendingReject(id, System.nanoTime()));
+        if (rejectWorkers.incrementAndGet() > MAX_REJECT_WORKERS) {
+            rejectWorkers.decrementAndGet();
+            return;
+        }
+        try {
+            executor.submit(this::drainRejects);
+        } catch (RejectedExecutionException e) {
+            rejectWorkers.decrementAndGet();
+        }
+    }
+
+    private void drainRejects() {
+        long expiryNanos = TimeUnit.MILLISECONDS.toNanos(Constants.NETWORK_TIMEOUT_MS);
+        while (true) {
+            PendingReject pending;
+            while ((pending = rejectQueue.poll()) != null) {
+                rejectQueueSize.decrementAndGet();
+                // 服务器已经丢弃的连接不需要再处理
+                if (System.nanoTime() - pending.queuedNanos < expiryNanos && running) {
+                    closeRejected(pending.id);
+                }
+            }
+            rejectWorkers.decrementAndGet();
+            // 退出后再次检查，避免与reject之间的竞争遗留请求
+            if (rejectQueue.isEmpty()) {
+                return;
+            }
+            if (rejectWorkers.incrementAndGet() > MAX_REJECT_WORKERS) {
+                rejectWorkers.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void closeRejected(UUID id) {
+        try {
+            if (muxConnections != null) {
+                muxConnection().open(id).reset();
+                return;
+            }
+            Delimited remoteStream = warmPool != null ? warmPool.take() : null;
+            if (remoteStream == null) {
+                remoteStream = openRemote();
+            }
+            try {
+                remoteStream.send(ClientMessage.accept(id));
+            } finally {
+                closeQuietly(remoteStream);
+            }
+        } catch (Exception e) {
+            logger.debug("Failed to reject connection {}: {}", id, e.getMessage());
+        }
+    }
+
+    /**
+     * 单个连接一个方向的限速器，以隧道的限速器为父，都未配置时为null
+     */
+    private RateLimiter connectionLimit(RateLimiter tunnelLimit) {
+        long rate = options.getConnectionBandwidthLimit();
+        if (tunnelLimit != null) {
+            return tunnelLimit.child(rate, bandwidthBurst(rate));
+        }
+        return rate > 0 ? new RateLimiter(rate, bandwidthBurst(rate)) : null;
+    }
+
+    private static RateLimiter bandwidthLimiter(long rate) {
+        return rate > 0 ? new RateLimiter(rate, bandwidthBurst(rate)) : null;
+    }
+
+    /**
+     * 字节限速的桶容量：约100毫秒的流量，且至少能容纳一次最大的复制
+     */
+    private static long bandwidthBurst(long rate) {
+        return Math.max(rate / 10, MIN_BANDWIDTH_BURST);
+    }
+
+    /**
+     * 阻塞转发时在每次写出后计数并按限速等待
+     */
+    private static LongConsumer throttled(LongConsumer counter, RateLimiter limit) {
+        if (limit == null) {
+            return counter;
+        }
+        return bytes -> {
+            counter.accept(bytes);
+            limit.acquire(bytes);
+        };
+    }
+
+    /**
+     * 未配置空闲超时时返回null
+     */
+    private IdleTimeout idleTimeout() {
+        return options.getIdleTimeoutMs() > 0 ? new IdleTimeout(options.getIdleTimeoutMs()) : null;
+    }
+
+    /**
+     * 在共享时间轮上开始空闲计时，超时后关闭给定的连接，使转发线程或事件循环自行结束并清理
+     */
+    private void watchIdle(IdleTimeout idle, UUID id, Closeable... ends) {
+        if (idle == null) {
+            return;
+        }
+        idle.start(TimerWheel.shared(), () -> {
+            logger.info("Closing idle connection: {}", id);
+            metrics.recordIdleClose();
+            for (Closeable end : ends) {
+                closeQuietly(end);
+            }
+        });
+    }
+
+    private static void cancelIdle(IdleTimeout idle) {
+        if (idle != null) {
+            idle.cancel();
+        }
+    }
+
+    /**
+     * 计数的同时刷新空闲计时
+     */
+    private static LongConsumer touching(LongConsumer counter, IdleTimeout idle) {
+        return idle != null ? counter.andThen(idle) : counter;
+    }
+
+    private static void connectionExited(UUID id, ClientMetrics.Connection stats) {
+        stats.close(false);
+        logger.info("Connection exited: {} ({} bytes sent, {} bytes received)", id, stats.getBytesSent(),
+                stats.getBytesReceived());
+    }
+
+    /**
+     * 选择活跃流最少的多路复用连接
+     *
+     * 已断开的槽位由执行器在后台重新建立，同一槽位同时只有一次拨号；调用方不持有锁，
+     * 只在没有任何可用连接时等待其中一次拨号完成
+     */
+    private MuxConnection muxConnection() throws IOException, TimeoutException {
+        MuxConnection best = null;
+        CompletableFuture<MuxConnection> pending = null;
+        for (int i = 0; i < muxConnections.length(); i++) {
+            CompletableFuture<MuxConnection> slot = muxSlot(i);
+            if (!slot.isDone()) {
+                pending = slot;
+                continue;
+            }
+            if (slot.isCompletedExceptionally()) {
+                if (pending == null) {
+                    pending = slot;
+                }
+                continue;
+            }
+            MuxConnection connection = slot.join();
+            if (!connection.isClosed() && (best == null || connection.getStreamCount() < best.getStreamCount())) {
+                best = connection;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        if (pending == null) {
+            throw new IOException("No multiplexed connection available");
+        }
+        return awaitMultiplexed(pending);
+    }
+
+    /**
+     * 返回槽位中的连接，连接已断开或上次建立失败时以比较并交换的方式开始一次新的拨号
+     */
+    private CompletableFuture<MuxConnection> muxSlot(int i) {
+        CompletableFuture<MuxConnection> current = muxConnections.get(i);
+        if (current != null && !isDead(current)) {
+            return current;
+        }
+        CompletableFuture<MuxConnection> opening = new CompletableFuture<>();
+        if (!muxConnections.compareAndSet(i, current, opening)) {
+            return muxConnections.get(i);
+        }
+        try {
+            executor.submit(() -> {
+                try {
+                    MuxConnection connection = openMultiplexed();
+                    if (!running) {
+                        closeQuietly(connection);
+                        throw new IOException("Client is closed");
+                    }
+                    opening.complete(connection);
+                } catch (IOException | TimeoutException | RuntimeException e) {
+                    opening.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 客户端已关闭
+            opening.completeExceptionally(new IOException("Client is closed"));
+        }
+        return opening;
+    }
+
+    private static boolean isDead(CompletableFuture<MuxConnection> slot) {
+        return slot.isCompletedExceptionally() || slot.isDone() && slot.join().isClosed();
+    }
+
+    private static MuxConnection awaitMultiplexed(CompletableFuture<MuxConnection> slot)
+            throws IOException, TimeoutException {
+        try {
+            return slot.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting to server", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof TimeoutException) {
+                throw (TimeoutException) cause;
+            }
+            throw new IOException("Error connecting to server", cause);
+        }
+    }
+
+    private MuxConnection openMultiplexed() throws IOException, TimeoutException {
+        Delimited stream = openRemote();
+        try {
+            stream.send(ClientMessage.multiplex());
+            Socket socket = stream.getSocket();
+            byte[] buffered = stream.detach();
+            MuxConnection connection = new MuxConnection(socket,
+                    new SequenceInputStream(new ByteArrayInputStream(buffered), socket.getInputStream()), null);
+            executor.submit(connection::run);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(stream);
+            throw e;
+        }
+    }
+
+    /**
+     * 选择一个本地服务实例，从其连接池取出连接，池为空或未启用时直接拨号
+     */
+    private LocalPool.Lease openLocal() throws IOException {
+        return localBackends.open();
+    }
+
+    private static LocalPool.Lease awaitLocal(CompletableFuture<LocalPool.Lease> localDial) throws IOException {
+        try {
+            return localDial.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting to local service", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Error connecting to local service", cause);
+        }
+    }
+
+    /**
+     * 连接到服务器的控制端口，并在需要时完成TLS握手和认证
+     *
+     * 始终使用通道创建连接，以便阻塞复制、直接缓冲区复制和非阻塞引擎共用同一个连接；TLS连接只能阻塞复制
+     */
+    private Delimited openRemote() throws IOException, TimeoutException {
+        long start = System.nanoTime();
+        SocketChannel channel = StreamUtils.openChannelWithTimeout(to, options.getControlPort(),
+                Constants.NETWORK_TIMEOUT_MS, options.getSocketProfile());
+        Socket socket = channel.socket();
+        if (options.getTls() != null) {
+            // 同一服务器的连接恢复此前的TLS会话，不必每次完整握手
+            socket = options.getTls().connect(socket, to, options.getControlPort(), Constants.NETWORK_TIMEOUT_MS);
+        }
+        Delimited stream = new Delimited(socket);
+        stream.setBinary(binaryControl);
+        try {
+            if (auth != null) {
+                auth.clientHandshake(stream);
+            }
+        } catch (IOException | TimeoutException | RuntimeException e) {
+            closeQuietly(stream);
+            throw e;
+        }
+        metrics.recordRemoteHandshake(System.nanoTime() - start);
+        return stream;
+    }
+
+    /**
+     * 本客户端的指标
+     */
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 从收到连接请求到可以转发第一个字节的平均耗时（毫秒）
+     */
+    public double getAverageTimeToFirstByteMs() {
+        Histogram histogram = metrics.getTimeToFirstByte();
+        long count = histogram.getCount();
+        return count == 0 ? 0 : histogram.getSum() / 1e6 / count;
+    }
+
+    /**
+     * 预热池的命中率，未启用时为0
+     */
+    public double getWarmPoolHitRate() {
+        return warmPool != null ? warmPool.getHitRate() : 0;
+    }
+
+    private static final class PendingReject {
+        private final UUID id;
+        private final long queuedNanos;
+
+        private PendingReject(UUID id, long queuedNanos) {
+            this.id = id;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+    /**
+     * 一次成功的Hello交换的结果
+     */
+    private static final class ControlSession {
+        private final Delimited stream;
+        private final int remotePort;
+        private final Set<Feature> features;
+
+        private ControlSession(Delimited stream, int remotePort, Set<Feature> features) {
+            this.stream = stream;
+            this.remotePort = remotePort;
+            this.features = features;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
         }
     }
 
     @Override
     public void close() {
         running = false;
-        if (conn != null) {
-            try {
-                conn.close();
-            } catch (IOException e) {
-                // 忽略关闭错误
+        admission.clear();
+        if (warmPool != null) {
+            warmPool.close();
+            logger.debug("{}", warmPool);
+        }
+        localBackends.close();
+        logger.debug("{}", localBackends);
+        if (muxConnections != null) {
+            // 正在建立的连接在建立完成后关闭
+            for (int i = 0; i < muxConnections.length(); i++) {
+                CompletableFuture<MuxConnection> slot = muxConnections.get(i);
+                if (slot != null) {
+                    slot.thenAccept(Client::closeQuietly);
+                }
             }
+        }
+        Delimited control;
+        synchronized (this) {
+            control = conn;
             conn = null;
         }
+        closeQuietly(control);
 
         executor.shutdownNow();
+        if (ownsEngine) {
+            engine.close();
+        }
+        logger.debug("Average time to first byte: {} ms", getAverageTimeToFirstByteMs());
+        logger.debug("{}", BufferPool.heap());
+        logger.debug("{}", BufferPool.direct());
     }
 }
\ No newline at end of file
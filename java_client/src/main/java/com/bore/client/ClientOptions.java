@@ -0,0 +1,564 @@
+package com.bore.client;
+
+import com.bore.metrics.MetricsRegistry;
+import com.bore.nio.SelectorEngine;
+import com.bore.shared.Constants;
+import com.bore.util.SocketProfile;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 客户端的可选配置
+ */
+public class ClientOptions {
+    /**
+     * 隧道连接的数据转发方式
+     */
+    public enum ForwardMode {
+        // 每个连接使用阻塞流和独立线程复制
+        BLOCKING,
+        // 所有连接共享固定数量的Selector事件循环
+        NIO,
+        // 每个连接使用阻塞通道和池化的直接缓冲区复制
+        DIRECT
+    }
+
+    /**
+     * 连接处理和阻塞复制使用的线程类型
+     */
+    public enum ThreadMode {
+        PLATFORM,
+        // 需要Java 21及以上运行时
+        VIRTUAL
+    }
+
+    /**
+     * 准入队列已满时的处理方式
+     */
+    public enum ShedPolicy {
+        // 拒绝新到达的请求
+        REJECT_NEW,
+        // 丢弃等待最久的请求，为新请求腾出位置
+        DROP_OLDEST
+    }
+
+    /**
+     * 准入队列的出队顺序
+     */
+    public enum AdmissionOrder {
+        FIFO,
+        // 积压超过队列一半时先处理最新的请求
+        ADAPTIVE_LIFO
+    }
+
+    /**
+     * 在多个本地服务实例之间分配连接的策略
+     */
+    public enum BalancePolicy {
+        // 选择打开连接最少的实例
+        LEAST_CONNECTIONS,
+        // 随机取两个实例，选择打开连接较少的一个
+        POWER_OF_TWO_CHOICES
+    }
+
+    private int controlPort = Constants.CONTROL_PORT;
+    private ForwardMode forwardMode = ForwardMode.BLOCKING;
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+    private boolean warmPoolEnabled;
+    private int warmPoolMinSize;
+    private int warmPoolMaxSize = 64;
+    // 必须短于服务器等待认证后首条消息的超时时间
+    private long warmPoolMaxIdleMs = Constants.NETWORK_TIMEOUT_MS * 2 / 3;
+    private boolean parallelDial;
+    private int localPoolSize;
+    private long localPoolMaxIdleMs = 30_000;
+    // 除本地地址之外的其他本地服务实例
+    private List<InetSocketAddress> localBackends = new ArrayList<>();
+    private BalancePolicy balancePolicy = BalancePolicy.LEAST_CONNECTIONS;
+    private long healthCheckIntervalMs = 5_000;
+    private int outlierEjectionFailures = 3;
+    private long outlierEjectionMs = 10_000;
+    private boolean multiplex;
+    private int muxConnections = 2;
+    private boolean binaryControl;
+    private boolean compression;
+    private TlsConnector tls;
+    private SocketProfile socketProfile = SocketProfile.LATENCY;
+    private MetricsRegistry metricsRegistry;
+    // 服务器每500毫秒发送一次心跳
+    private int heartbeatTimeoutMs = 5000;
+    private long reconnectInitialBackoffMs = 200;
+    private long reconnectMaxBackoffMs = 30_000;
+    private int reconnectMaxAttempts;
+    private SelectorEngine selectorEngine;
+    // 阻塞模式下每个已建立的连接占用两个线程，默认上限使连接洪水被拒绝而不是耗尽线程和内存
+    private int maxConnections = 2048;
+    private long bandwidthLimit;
+    private long connectionBandwidthLimit;
+    private int connectionRateLimit;
+    private int admissionConcurrency = 64;
+    private int admissionQueueSize = 1024;
+    // 服务器在10秒后丢弃未被接受的连接
+    private long admissionTimeoutMs = 10_000;
+    private ShedPolicy shedPolicy = ShedPolicy.REJECT_NEW;
+    private AdmissionOrder admissionOrder = AdmissionOrder.FIFO;
+    // 双向都没有数据传输超过该时间时关闭连接，0表示不限制
+    private long idleTimeoutMs;
+
+    /**
+     * 复制全部配置，用于在共享基础配置的多个隧道之间单独调整
+     */
+    public ClientOptions copy() {
+        ClientOptions copy = new ClientOptions();
+        copy.controlPort = controlPort;
+        copy.forwardMode = forwardMode;
+        copy.ioThreads = ioThreads;
+        copy.threadMode = threadMode;
+        copy.warmPoolEnabled = warmPoolEnabled;
+        copy.warmPoolMinSize = warmPoolMinSize;
+        copy.warmPoolMaxSize = warmPoolMaxSize;
+        copy.warmPoolMaxIdleMs = warmPoolMaxIdleMs;
+        copy.parallelDial = parallelDial;
+        copy.localPoolSize = localPoolSize;
+        copy.localPoolMaxIdleMs = localPoolMaxIdleMs;
+        copy.localBackends = new ArrayList<>(localBackends);
+        copy.balancePolicy = balancePolicy;
+        copy.healthCheckIntervalMs = healthCheckIntervalMs;
+        copy.outlierEjectionFailures = outlierEjectionFailures;
+        copy.outlierEjectionMs = outlierEjectionMs;
+        copy.multiplex = multiplex;
+        copy.muxConnections = muxConnections;
+        copy.binaryControl = binaryControl;
+        copy.compression = compression;
+        copy.tls = tls;
+        copy.socketProfile = socketProfile;
+        copy.metricsRegistry = metricsRegistry;
+        copy.heartbeatTimeoutMs = heartbeatTimeoutMs;
+        copy.reconnectInitialBackoffMs = reconnectInitialBackoffMs;
+        copy.reconnectMaxBackoffMs = reconnectMaxBackoffMs;
+        copy.reconnectMaxAttempts = reconnectMaxAttempts;
+        copy.selectorEngine = selectorEngine;
+        copy.maxConnections = maxConnections;
+        copy.bandwidthLimit = bandwidthLimit;
+        copy.connectionBandwidthLimit = connectionBandwidthLimit;
+        copy.connectionRateLimit = connectionRateLimit;
+        copy.admissionConcurrency = admissionConcurrency;
+        copy.admissionQueueSize = admissionQueueSize;
+        copy.admissionTimeoutMs = admissionTimeoutMs;
+        copy.shedPolicy = shedPolicy;
+        copy.admissionOrder = admissionOrder;
+        copy.idleTimeoutMs = idleTimeoutMs;
+        return copy;
+    }
+
+    public int getControlPort() {
+        return controlPort;
+    }
+
+    /**
+     * 服务器控制端口，仅用于连接非标准端口的服务器（例如本地测试服务器）
+     */
+    public ClientOptions setControlPort(int controlPort) {
+        this.controlPort = controlPort;
+        return this;
+    }
+
+    public ForwardMode getForwardMode() {
+        return forwardMode;
+    }
+
+    public ClientOptions setForwardMode(ForwardMode forwardMode) {
+        this.forwardMode = forwardMode;
+        return this;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public ClientOptions setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+        return this;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public ClientOptions setThreadMode(ThreadMode threadMode) {
+        this.threadMode = threadMode;
+        return this;
+    }
+
+    public boolean isWarmPoolEnabled() {
+        return warmPoolEnabled;
+    }
+
+    public ClientOptions setWarmPoolEnabled(boolean warmPoolEnabled) {
+        this.warmPoolEnabled = warmPoolEnabled;
+        return this;
+    }
+
+    public int getWarmPoolMinSize() {
+        return warmPoolMinSize;
+    }
+
+    public ClientOptions setWarmPoolMinSize(int warmPoolMinSize) {
+        this.warmPoolMinSize = warmPoolMinSize;
+        return this;
+    }
+
+    public int getWarmPoolMaxSize() {
+        return warmPoolMaxSize;
+    }
+
+    public ClientOptions setWarmPoolMaxSize(int warmPoolMaxSize) {
+        this.warmPoolMaxSize = warmPoolMaxSize;
+        return this;
+    }
+
+    public long getWarmPoolMaxIdleMs() {
+        return warmPoolMaxIdleMs;
+    }
+
+    public ClientOptions setWarmPoolMaxIdleMs(long warmPoolMaxIdleMs) {
+        this.warmPoolMaxIdleMs = warmPoolMaxIdleMs;
+        return this;
+    }
+
+    public boolean isParallelDial() {
+        return parallelDial;
+    }
+
+    public ClientOptions setParallelDial(boolean parallelDial) {
+        this.parallelDial = parallelDial;
+        return this;
+    }
+
+    public int getLocalPoolSize() {
+        return localPoolSize;
+    }
+
+    public ClientOptions setLocalPoolSize(int localPoolSize) {
+        this.localPoolSize = localPoolSize;
+        return this;
+    }
+
+    public long getLocalPoolMaxIdleMs() {
+        return localPoolMaxIdleMs;
+    }
+
+    public ClientOptions setLocalPoolMaxIdleMs(long localPoolMaxIdleMs) {
+        this.localPoolMaxIdleMs = localPoolMaxIdleMs;
+        return this;
+    }
+
+    public List<InetSocketAddress> getLocalBackends() {
+        return localBackends;
+    }
+
+    /**
+     * 除本地地址之外的其他本地服务实例（未解析的host和port），连接按balancePolicy在所有实例之间分配
+     */
+    public ClientOptions setLocalBackends(List<InetSocketAddress> localBackends) {
+        this.localBackends = new ArrayList<>(localBackends);
+        return this;
+    }
+
+    public BalancePolicy getBalancePolicy() {
+        return balancePolicy;
+    }
+
+    public ClientOptions setBalancePolicy(BalancePolicy balancePolicy) {
+        this.balancePolicy = balancePolicy;
+        return this;
+    }
+
+    public long getHealthCheckIntervalMs() {
+        return healthCheckIntervalMs;
+    }
+
+    /**
+     * 有多个本地服务实例时主动健康检查（TCP连接）的间隔，0表示不检查
+     */
+    public ClientOptions setHealthCheckIntervalMs(long healthCheckIntervalMs) {
+        this.healthCheckIntervalMs = healthCheckIntervalMs;
+        return this;
+    }
+
+    public int getOutlierEjectionFailures() {
+        return outlierEjectionFailures;
+    }
+
+    /**
+     * 连续拨号失败该次数后暂停向实例分配连接，0表示不因拨号失败剔除
+     */
+    public ClientOptions setOutlierEjectionFailures(int outlierEjectionFailures) {
+        this.outlierEjectionFailures = outlierEjectionFailures;
+        return this;
+    }
+
+    public long getOutlierEjectionMs() {
+        return outlierEjectionMs;
+    }
+
+    /**
+     * 实例第一次被剔除的时长，之后每次再被剔除时按次数延长
+     */
+    public ClientOptions setOutlierEjectionMs(long outlierEjectionMs) {
+        this.outlierEjectionMs = outlierEjectionMs;
+        return this;
+    }
+
+    public boolean isMultiplex() {
+        return multiplex;
+    }
+
+    /**
+     * 在少量长连接上多路复用所有隧道连接，需要服务器支持，不支持时回退为每个连接一个TCP连接
+     */
+    public ClientOptions setMultiplex(boolean multiplex) {
+        this.multiplex = multiplex;
+        return this;
+    }
+
+    public int getMuxConnections() {
+        return muxConnections;
+    }
+
+    public ClientOptions setMuxConnections(int muxConnections) {
+        this.muxConnections = muxConnections;
+        return this;
+    }
+
+    public boolean isBinaryControl() {
+        return binaryControl;
+    }
+
+    /**
+     * 控制帧使用二进制编码，需要服务器支持，不支持时回退为JSON
+     */
+    public ClientOptions setBinaryControl(boolean binaryControl) {
+        this.binaryControl = binaryControl;
+        return this;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * 压缩数据连接上的数据，需要服务器支持；压缩率差的数据自动原样发送，多路复用的连接不压缩
+     */
+    public ClientOptions setCompression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public SocketProfile getSocketProfile() {
+        return socketProfile;
+    }
+
+    /**
+     * 本地和远程Socket的TCP选项及阻塞复制的写入策略
+     */
+    public ClientOptions setSocketProfile(SocketProfile socketProfile) {
+        this.socketProfile = socketProfile;
+        return this;
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * 注册客户端指标的注册表，为null时客户端使用私有的注册表
+     */
+    public ClientOptions setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+        return this;
+    }
+
+    public int getHeartbeatTimeoutMs() {
+        return heartbeatTimeoutMs;
+    }
+
+    /**
+     * 超过该时间没有收到服务器的任何消息时认为控制连接已断开，0表示不检测
+     */
+    public ClientOptions setHeartbeatTimeoutMs(int heartbeatTimeoutMs) {
+        this.heartbeatTimeoutMs = heartbeatTimeoutMs;
+        return this;
+    }
+
+    public long getReconnectInitialBackoffMs() {
+        return reconnectInitialBackoffMs;
+    }
+
+    /**
+     * 控制连接断开后第一次重连前的等待时间，之后每次失败翻倍
+     */
+    public ClientOptions setReconnectInitialBackoffMs(long reconnectInitialBackoffMs) {
+        this.reconnectInitialBackoffMs = reconnectInitialBackoffMs;
+        return this;
+    }
+
+    public long getReconnectMaxBackoffMs() {
+        return reconnectMaxBackoffMs;
+    }
+
+    public ClientOptions setReconnectMaxBackoffMs(long reconnectMaxBackoffMs) {
+        this.reconnectMaxBackoffMs = reconnectMaxBackoffMs;
+        return this;
+    }
+
+    public int getReconnectMaxAttempts() {
+        return reconnectMaxAttempts;
+    }
+
+    /**
+     * 控制连接断开后连续重连失败多少次时放弃并关闭客户端，0表示一直重试
+     */
+    public ClientOptions setReconnectMaxAttempts(int reconnectMaxAttempts) {
+        this.reconnectMaxAttempts = reconnectMaxAttempts;
+        return this;
+    }
+
+    public TlsConnector getTls() {
+        return tls;
+    }
+
+    /**
+     * 控制连接和数据连接使用TLS，为null时使用明文连接；TLS连接只能经由流读写，各转发模式都使用阻塞复制
+     */
+    public ClientOptions setTls(TlsConnector tls) {
+        this.tls = tls;
+        return this;
+    }
+
+    public SelectorEngine getSelectorEngine() {
+        return selectorEngine;
+    }
+
+    /**
+     * NIO转发使用的共享引擎，由调用方关闭；为null时客户端按ioThreads创建私有的引擎
+     */
+    public ClientOptions setSelectorEngine(SelectorEngine selectorEngine) {
+        this.selectorEngine = selectorEngine;
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * 同时打开的隧道连接数上限，超出时拒绝新的连接请求，默认2048，0表示不限制
+     */
+    public ClientOptions setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public long getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    /**
+     * 整个隧道每个方向的速率上限（字节/秒），0表示不限制
+     */
+    public ClientOptions setBandwidthLimit(long bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+        return this;
+    }
+
+    public long getConnectionBandwidthLimit() {
+        return connectionBandwidthLimit;
+    }
+
+    /**
+     * 单个连接每个方向的速率上限（字节/秒），0表示不限制
+     */
+    public ClientOptions setConnectionBandwidthLimit(long connectionBandwidthLimit) {
+        this.connectionBandwidthLimit = connectionBandwidthLimit;
+        return this;
+    }
+
+    public int getConnectionRateLimit() {
+        return connectionRateLimit;
+    }
+
+    /**
+     * 每秒接受的新连接数上限，超出时拒绝连接请求，0表示不限制
+     */
+    public ClientOptions setConnectionRateLimit(int connectionRateLimit) {
+        this.connectionRateLimit = connectionRateLimit;
+        return this;
+    }
+
+    public int getAdmissionConcurrency() {
+        return admissionConcurrency;
+    }
+
+    /**
+     * 同时建立中（远程握手和拨号本地服务）的连接数上限
+     */
+    public ClientOptions setAdmissionConcurrency(int admissionConcurrency) {
+        this.admissionConcurrency = admissionConcurrency;
+        return this;
+    }
+
+    public int getAdmissionQueueSize() {
+        return admissionQueueSize;
+    }
+
+    /**
+     * 等待处理的连接请求数上限
+     */
+    public ClientOptions setAdmissionQueueSize(int admissionQueueSize) {
+        this.admissionQueueSize = admissionQueueSize;
+        return this;
+    }
+
+    public long getAdmissionTimeoutMs() {
+        return admissionTimeoutMs;
+    }
+
+    /**
+     * 连接请求在队列中的最长等待时间，超时后拒绝，0表示不限制
+     */
+    public ClientOptions setAdmissionTimeoutMs(long admissionTimeoutMs) {
+        this.admissionTimeoutMs = admissionTimeoutMs;
+        return this;
+    }
+
+    public ShedPolicy getShedPolicy() {
+        return shedPolicy;
+    }
+
+    public ClientOptions setShedPolicy(ShedPolicy shedPolicy) {
+        this.shedPolicy = shedPolicy;
+        return this;
+    }
+
+    public AdmissionOrder getAdmissionOrder() {
+        return admissionOrder;
+    }
+
+    public ClientOptions setAdmissionOrder(AdmissionOrder admissionOrder) {
+        this.admissionOrder = admissionOrder;
+        return this;
+    }
+
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public ClientOptions setIdleTimeoutMs(long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+        return this;
+    }
+}
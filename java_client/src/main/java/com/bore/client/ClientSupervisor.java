@@ -0,0 +1,129 @@
+package com.bore.client;
+
+import com.bore.metrics.ClientMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 控制连接的守护：连接断开或心跳超时后按带抖动的指数退避重连，并重新请求原来的公开端口
+ *
+ * 重连只替换控制连接，正在转发的数据连接、多路复用连接和连接池保持不变。
+ */
+public class ClientSupervisor implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ClientSupervisor.class);
+
+    // 连续失败达到该次数后以ERROR级别记录，提示问题不是暂时的
+    private static final int ESCALATE_AFTER_ATTEMPTS = 10;
+
+    private final Client client;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final int maxAttempts;
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    private ClientSupervisor(Client client, ClientOptions options) {
+        this.client = client;
+        this.initialBackoffMs = Math.max(1, options.getReconnectInitialBackoffMs());
+        this.maxBackoffMs = Math.max(initialBackoffMs, options.getReconnectMaxBackoffMs());
+        this.maxAttempts = Math.max(0, options.getReconnectMaxAttempts());
+    }
+
+    /**
+     * 创建客户端并由守护管理，首次连接失败时直接抛出异常
+     */
+    public static ClientSupervisor create(String localHost, int localPort, String to, int port, String secret,
+                                          ClientOptions options) throws IOException, TimeoutException {
+        return new ClientSupervisor(Client.create(localHost, localPort, to, port, secret, options), options);
+    }
+
+    public Client getClient() {
+        return client;
+    }
+
+    /**
+     * 处理控制消息，断开后自动重连，直到调用close；连续重连失败达到上限时关闭客户端并抛出IOException
+     */
+    public void run() throws IOException {
+        ClientMetrics metrics = client.getMetrics();
+        try {
+            while (!isClosed()) {
+                try {
+                    client.serve();
+                    return;
+                } catch (IOException e) {
+                    if (isClosed()) {
+                        return;
+                    }
+                    logger.warn("Lost control connection: {}", e.getMessage());
+                }
+                metrics.recordControlDisconnect();
+
+                long lostNanos = System.nanoTime();
+                for (int attempt = 0; !isClosed(); attempt++) {
+                    if (!sleep(backoffMs(attempt, initialBackoffMs, maxBackoffMs))) {
+                        return;
+                    }
+                    metrics.recordControlReconnect();
+                    try {
+                        client.reconnect();
+                        long recoveryNanos = System.nanoTime() - lostNanos;
+                        metrics.recordControlRecovery(recoveryNanos);
+                        logger.info("Control connection recovered after {} ms ({} attempts)",
+                                TimeUnit.NANOSECONDS.toMillis(recoveryNanos), attempt + 1);
+                        break;
+                    } catch (IOException | TimeoutException e) {
+                        if (attempt + 1 < ESCALATE_AFTER_ATTEMPTS) {
+                            logger.warn("Reconnect attempt {} failed: {}", attempt + 1, e.getMessage());
+                        } else {
+                            logger.error("Reconnect attempt {} failed: {}", attempt + 1, e.getMessage());
+                        }
+                        if (maxAttempts > 0 && attempt + 1 >= maxAttempts) {
+                            throw new IOException("Giving up after " + maxAttempts + " failed reconnect attempts: "
+                                    + e.getMessage(), e);
+                        }
+                    }
+                }
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * 第attempt次重连前的等待时间：上限内翻倍，并在后一半范围内随机抖动，避免大量客户端同时重连
+     */
+    static long backoffMs(int attempt, long initialBackoffMs, long maxBackoffMs) {
+        long ceiling = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt, 30));
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+
+    /**
+     * 等待指定时间，期间被关闭时返回false
+     */
+    private boolean sleep(long millis) {
+        try {
+            return !closed.await(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private boolean isClosed() {
+        return closed.getCount() == 0;
+    }
+
+    @Override
+    public void close() {
+        closed.countDown();
+        client.close();
+    }
+}
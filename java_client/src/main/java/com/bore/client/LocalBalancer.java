@@ -0,0 +1,416 @@
+package com.bore.client;
+
+import com.bore.metrics.ClientMetrics;
+import com.bore.shared.Constants;
+import com.bore.util.SocketProfile;
+import com.bore.util.StreamUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在一个或多个本地服务实例之间分配隧道连接
+ *
+ * 只在可用的实例中选择：主动健康检查定期以TCP连接探测每个实例，连续失败若干次后标记为不健康，成功一次即恢复；
+ * 被动异常剔除根据实际拨号的结果，连续拨号失败或连接耗时远高于其他实例时暂停分配一段时间，再次被剔除时时长递增。
+ * 同时被剔除的实例不超过一半；全部实例都不可用时仍在所有实例中选择，健康检查误判不会使整个隧道不可用。
+ * 拨号失败时换一个实例重试一次。
+ */
+class LocalBalancer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(LocalBalancer.class);
+
+    // 一次连接最多尝试的实例数
+    private static final int MAX_DIAL_ATTEMPTS = 2;
+
+    // 健康检查连续失败该次数后标记为不健康
+    private static final int UNHEALTHY_THRESHOLD = 2;
+
+    // 连接耗时的指数移动平均权重
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    // 参与耗时比较所需的最少样本数
+    private static final int MIN_LATENCY_SAMPLES = 10;
+
+    // 平均连接耗时超过其他实例中位数的该倍数时剔除
+    private static final double LATENCY_OUTLIER_FACTOR = 5;
+
+    // 低于该耗时（纳秒）时不因耗时剔除，本地回环连接的耗时差异没有意义
+    private static final long MIN_OUTLIER_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    // 剔除时长最多延长到首次的倍数
+    private static final int MAX_EJECTION_MULTIPLIER = 8;
+
+    private final Backend[] backends;
+    private final ClientOptions.BalancePolicy policy;
+    private final int ejectionFailures;
+    private final long ejectionNanos;
+    private final ExecutorService executor;
+    private final SocketProfile profile;
+    private final ScheduledExecutorService scheduler;
+    // 最少连接策略的起始位置，连接数相同的实例轮流被选中
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * 第一个实例为localHost:localPort，其余来自options.getLocalBackends()；有多个实例时记录每个实例的指标
+     */
+    LocalBalancer(String localHost, int localPort, ClientOptions options, ExecutorService executor,
+                  ClientMetrics metrics) {
+        List<InetSocketAddress> others = options.getLocalBackends();
+        this.backends = new Backend[1 + others.size()];
+        this.policy = options.getBalancePolicy();
+        this.ejectionFailures = options.getOutlierEjectionFailures();
+        this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(options.getOutlierEjectionMs());
+        this.executor = executor;
+        this.profile = options.getSocketProfile();
+        for (int i = 0; i < backends.length; i++) {
+            String host = i == 0 ? localHost : others.get(i - 1).getHostString();
+            int port = i == 0 ? localPort : others.get(i - 1).getPort();
+            LocalPool pool = options.getLocalPoolSize() > 0
+                    ? new LocalPool(host, port, options.getLocalPoolSize(), options.getLocalPoolMaxIdleMs(), executor,
+                            profile)
+                    : null;
+            backends[i] = new Backend(host, port, pool);
+            if (backends.length > 1 && metrics != null) {
+                Backend backend = backends[i];
+                backend.metrics = metrics.backend(backend.address, backend.active::get,
+                        () -> backend.healthy ? 1 : 0);
+            }
+        }
+
+        // 只有一个实例时不论是否健康都只能选择它，不需要检查
+        long interval = options.getHealthCheckIntervalMs();
+        if (backends.length > 1 && interval > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "bore-health-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            int timeoutMs = (int) Math.min(interval, Constants.NETWORK_TIMEOUT_MS);
+            scheduler.scheduleWithFixedDelay(() -> checkAll(timeoutMs), interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * 实例数量
+     */
+    int size() {
+        return backends.length;
+    }
+
+    /**
+     * 选择一个实例并取出连接，拨号失败时换一个实例重试；返回的连接关闭时释放实例上的连接计数
+     */
+    LocalPool.Lease open() throws IOException {
+        IOException failure = null;
+        Backend failed = null;
+        for (int attempt = 0; attempt < MAX_DIAL_ATTEMPTS; attempt++) {
+            Backend backend = pick(failed);
+            if (backend == null) {
+                break;
+            }
+            backend.active.incrementAndGet();
+            try {
+                return backend.open().onClose(backend.active::decrementAndGet);
+            } catch (IOException e) {
+                backend.active.decrementAndGet();
+                reportFailure(backend, e);
+                failure = e;
+                failed = backend;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * 按策略选择一个实例，exclude为本次连接已经失败的实例；没有其他实例时返回null
+     */
+    private Backend pick(Backend exclude) {
+        long now = System.nanoTime();
+        int[] candidates = new int[backends.length];
+        int count = 0;
+        for (int i = 0; i < backends.length; i++) {
+            if (backends[i] != exclude && backends[i].isAvailable(now)) {
+                candidates[count++] = i;
+            }
+        }
+        if (count == 0) {
+            // 没有可用的实例，退回在全部实例中选择
+            for (int i = 0; i < backends.length; i++) {
+                if (backends[i] != exclude) {
+                    candidates[count++] = i;
+                }
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        if (policy == ClientOptions.BalancePolicy.POWER_OF_TWO_CHOICES && count > 2) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int a = random.nextInt(count);
+            int b = random.nextInt(count - 1);
+            if (b >= a) {
+                b++;
+            }
+            Backend first = backends[candidates[a]];
+            Backend second = backends[candidates[b]];
+            return second.active.get() < first.active.get() ? second : first;
+        }
+
+        int start = Math.floorMod(next.getAndIncrement(), count);
+        Backend best = null;
+        for (int i = 0; i < count; i++) {
+            Backend backend = backends[candidates[(start + i) % count]];
+            if (best == null || backend.active.get() < best.active.get()) {
+                best = backend;
+            }
+        }
+        return best;
+    }
+
+    private void reportFailure(Backend backend, IOException e) {
+        logger.debug("Failed to connect to local backend {}: {}", backend.address, e.getMessage());
+        if (backend.metrics != null) {
+            backend.metrics.recordConnectFailure();
+        }
+        if (ejectionFailures > 0 && backend.failures.incrementAndGet() >= ejectionFailures) {
+            eject(backend, backend.failures.get() + " consecutive connect failures");
+        }
+    }
+
+    private void reportSuccess(Backend backend, long nanos) {
+        backend.failures.set(0);
+        if (backend.metrics != null) {
+            backend.metrics.recordConnect(nanos);
+        }
+        if (backends.length == 1) {
+            return;
+        }
+        double latency = backend.recordLatency(nanos);
+        if (latency < MIN_OUTLIER_LATENCY_NANOS || backend.samples() < MIN_LATENCY_SAMPLES) {
+            return;
+        }
+        double typical = typicalLatency(backend);
+        if (typical > 0 && latency > typical * LATENCY_OUTLIER_FACTOR) {
+            eject(backend, String.format("connect latency %.1f ms, others %.1f ms", latency / 1e6, typical / 1e6));
+        }
+    }
+
+    /**
+     * 其他可用实例平均连接耗时的中位数，没有足够样本时返回0
+     */
+    private double typicalLatency(Backend exclude) {
+        long now = System.nanoTime();
+        double[] latencies = new double[backends.length];
+        int count = 0;
+        for (Backend backend : backends) {
+            if (backend != exclude && backend.isAvailable(now) && backend.samples() >= MIN_LATENCY_SAMPLES) {
+                latencies[count++] = backend.latency();
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        Arrays.sort(latencies, 0, count);
+        return latencies[count / 2];
+    }
+
+    /**
+     * 暂停向实例分配连接，同时被剔除的实例不超过一半
+     */
+    private synchronized void eject(Backend backend, String reason) {
+        long now = System.nanoTime();
+        if (backend.isEjected(now)) {
+            return;
+        }
+        int ejected = 0;
+        for (Backend other : backends) {
+            if (other.isEjected(now)) {
+                ejected++;
+            }
+        }
+        if (ejected + 1 > backends.length / 2) {
+            logger.debug("Not ejecting local backend {} ({}), too many backends ejected", backend.address, reason);
+            return;
+        }
+
+        // 上次剔除结束后稳定运行足够久时，剔除时长从头计算
+        if (backend.ejectedUntil != 0 && now - backend.ejectedUntil > ejectionNanos * MAX_EJECTION_MULTIPLIER) {
+            backend.ejections = 0;
+        }
+        backend.ejections = Math.min(backend.ejections + 1, MAX_EJECTION_MULTIPLIER);
+        long duration = ejectionNanos * backend.ejections;
+        backend.ejectedUntil = now + duration | 1;
+        backend.failures.set(0);
+        backend.resetLatency();
+        if (backend.metrics != null) {
+            backend.metrics.recordEjection();
+        }
+        logger.warn("Ejected local backend {} for {} ms: {}", backend.address,
+                TimeUnit.NANOSECONDS.toMillis(duration), reason);
+    }
+
+    private void checkAll(int timeoutMs) {
+        for (Backend backend : backends) {
+            if (!backend.checking.compareAndSet(false, true)) {
+                // 上一次检查仍未结束
+                continue;
+            }
+            try {
+                executor.submit(() -> check(backend, timeoutMs));
+            } catch (RejectedExecutionException e) {
+                backend.checking.set(false);
+                return;
+            }
+        }
+    }
+
+    private void check(Backend backend, int timeoutMs) {
+        try {
+            SocketChannel channel = StreamUtils.openChannelWithTimeout(backend.host, backend.port, timeoutMs, profile);
+            closeQuietly(channel);
+            backend.checkFailures = 0;
+            if (!backend.healthy) {
+                backend.healthy = true;
+                logger.info("Local backend {} is healthy again", backend.address);
+            }
+        } catch (IOException e) {
+            if (++backend.checkFailures >= UNHEALTHY_THRESHOLD && backend.healthy) {
+                backend.healthy = false;
+                logger.warn("Local backend {} failed {} health checks: {}", backend.address, backend.checkFailures,
+                        e.getMessage());
+            }
+        } finally {
+            backend.checking.set(false);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
+        }
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (Backend backend : backends) {
+            if (backend.pool != null) {
+                backend.pool.close();
+                logger.debug("{}: {}", backend.address, backend.pool);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        long now = System.nanoTime();
+        StringBuilder builder = new StringBuilder("LocalBalancer[");
+        for (int i = 0; i < backends.length; i++) {
+            Backend backend = backends[i];
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(backend.address).append(" active=").append(backend.active.get());
+            if (!backend.isAvailable(now)) {
+                builder.append(backend.healthy ? " ejected" : " unhealthy");
+            }
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * 一个本地服务实例的状态
+     */
+    private final class Backend {
+        private final String host;
+        private final int port;
+        private final String address;
+        private final LocalPool pool;
+        private final AtomicInteger active = new AtomicInteger();
+        // 连续的拨号失败次数
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicBoolean checking = new AtomicBoolean();
+        // 只由健康检查更新
+        private volatile boolean healthy = true;
+        private int checkFailures;
+        // 剔除结束的时间，0表示未被剔除过；由eject在同步块中更新
+        private volatile long ejectedUntil;
+        private int ejections;
+        // 连接耗时的移动平均（纳秒）
+        private double latency;
+        private int samples;
+        private volatile ClientMetrics.Backend metrics;
+
+        private Backend(String host, int port, LocalPool pool) {
+            this.host = host;
+            this.port = port;
+            this.address = host + ":" + port;
+            this.pool = pool;
+        }
+
+        private boolean isEjected(long now) {
+            long until = ejectedUntil;
+            return until != 0 && now - until < 0;
+        }
+
+        private boolean isAvailable(long now) {
+            return healthy && !isEjected(now);
+        }
+
+        /**
+         * 从该实例的连接池取出连接，池为空或未启用时拨号并记录连接耗时
+         */
+        private LocalPool.Lease open() throws IOException {
+            if (pool != null) {
+                LocalPool.Lease lease = pool.take();
+                if (lease != null) {
+                    return lease;
+                }
+            }
+            long start = System.nanoTime();
+            LocalPool.Lease lease = LocalPool.dial(host, port, profile);
+            reportSuccess(this, System.nanoTime() - start);
+            return lease;
+        }
+
+        private synchronized double recordLatency(long nanos) {
+            latency = samples == 0 ? nanos : latency + (nanos - latency) * LATENCY_WEIGHT;
+            samples++;
+            return latency;
+        }
+
+        private synchronized double latency() {
+            return latency;
+        }
+
+        private synchronized int samples() {
+            return samples;
+        }
+
+        private synchronized void resetLatency() {
+            latency = 0;
+            samples = 0;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.bore.client;
+
+import com.bore.shared.Constants;
+import com.bore.util.SocketProfile;
+import com.bore.util.StreamUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 预先打开的本地服务连接池，只适用于能容忍空闲连接的服务
+ *
+ * 取出连接时以非阻塞读检查连接是否仍然存活；服务主动发送的数据（例如欢迎信息）会随连接一起返回，
+ * 由调用方转发给远程。
+ */
+class LocalPool implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(LocalPool.class);
+
+    // 维护周期（毫秒）
+    private static final long TICK_MS = 100;
+
+    // 存活检查时最多读取的字节数
+    private static final int GREETING_LIMIT = 4096;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final String host;
+    private final int port;
+    private final int size;
+    private final long maxIdleNanos;
+    private final ExecutorService openExecutor;
+    private final SocketProfile profile;
+
+    private final Deque<Entry> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger opening = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private volatile boolean closed;
+
+    LocalPool(String host, int port, int size, long maxIdleMs, ExecutorService openExecutor, SocketProfile profile) {
+        this.host = host;
+        this.port = port;
+        this.size = size;
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMs);
+        this.openExecutor = openExecutor;
+        this.profile = profile;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bore-local-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::tick, 0, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 直接拨号本地服务，不经过连接池
+     */
+    static Lease dial(String host, int port, SocketProfile profile) throws IOException {
+        return new Lease(StreamUtils.openChannelWithTimeout(host, port, Constants.NETWORK_TIMEOUT_MS, profile), EMPTY);
+    }
+
+    /**
+     * 取出一个存活的本地连接，池为空时返回null
+     */
+    Lease take() {
+        long now = System.nanoTime();
+        Entry entry;
+        while ((entry = idle.pollLast()) != null) {
+            idleCount.decrementAndGet();
+            if (now - entry.createdNanos >= maxIdleNanos) {
+                closeQuietly(entry.channel);
+                continue;
+            }
+            Lease lease = check(entry.channel);
+            if (lease != null) {
+                hits.increment();
+                return lease;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 非阻塞地读取一次以检查连接是否已被本地服务关闭
+     */
+    private static Lease check(SocketChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocate(GREETING_LIMIT);
+        try {
+            channel.configureBlocking(false);
+            int read = channel.read(buffer);
+            channel.configureBlocking(true);
+            if (read < 0) {
+                closeQuietly(channel);
+                return null;
+            }
+            byte[] greeting = read == 0 ? EMPTY : Arrays.copyOf(buffer.array(), read);
+            return new Lease(channel, greeting);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            return null;
+        }
+    }
+
+    private void tick() {
+        try {
+            long now = System.nanoTime();
+            Entry oldest;
+            while ((oldest = idle.peekFirst()) != null && now - oldest.createdNanos >= maxIdleNanos) {
+                if (idle.remove(oldest)) {
+                    idleCount.decrementAndGet();
+                    closeQuietly(oldest.channel);
+                }
+            }
+
+            int deficit = size - idleCount.get() - opening.get();
+            for (int i = 0; i < deficit && !closed; i++) {
+                opening.incrementAndGet();
+                try {
+                    openExecutor.submit(this::open);
+                } catch (RejectedExecutionException e) {
+                    opening.decrementAndGet();
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Local pool maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    private void open() {
+        try {
+            SocketChannel channel = StreamUtils.openChannelWithTimeout(host, port, Constants.NETWORK_TIMEOUT_MS, profile);
+            if (closed) {
+                closeQuietly(channel);
+                return;
+            }
+            idle.offerLast(new Entry(channel, System.nanoTime()));
+            idleCount.incrementAndGet();
+        } catch (IOException e) {
+            logger.debug("Failed to open local connection: {}", e.getMessage());
+        } finally {
+            opening.decrementAndGet();
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            closeQuietly(entry.channel);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LocalPool[hits=%d, misses=%d, idle=%d, size=%d]",
+                hits.sum(), misses.sum(), idleCount.get(), size);
+    }
+
+    /**
+     * 借出的本地连接，以及存活检查时已经读到的数据
+     *
+     * 关闭时关闭连接并通知负载均衡器该实例少了一个连接，可以重复关闭
+     */
+    static final class Lease implements Closeable {
+        final SocketChannel channel;
+        final byte[] greeting;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile Runnable release;
+
+        private Lease(SocketChannel channel, byte[] greeting) {
+            this.channel = channel;
+            this.greeting = greeting;
+        }
+
+        /**
+         * 设置第一次关闭时执行的回调
+         */
+        Lease onClose(Runnable release) {
+            this.release = release;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(channel);
+            if (closed.compareAndSet(false, true) && release != null) {
+                release.run();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final SocketChannel channel;
+        private final long createdNanos;
+
+        private Entry(SocketChannel channel, long createdNanos) {
+            this.channel = channel;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
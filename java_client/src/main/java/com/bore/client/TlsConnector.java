@@ -0,0 +1,127 @@
+package com.bore.client;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+
+/**
+ * 控制连接和数据连接的TLS客户端，在已建立的TCP连接上完成握手
+ *
+ * 所有连接共用一个SSLContext：第一个连接完成完整握手后，服务器签发的会话票据（TLS 1.3）或会话ID（TLS 1.2）
+ * 保存在上下文的会话缓存中，之后的连接以会话恢复完成握手，省去证书验证和大部分密钥交换开销。
+ * 关闭会话恢复时每个连接使用新的SSLContext，用于比较两种握手的开销。
+ *
+ * JDK的TLS 1.3会话恢复仍要完成一次ECDHE密钥交换，只省去证书签名和验证；TLS 1.2的会话恢复不做密钥交换，
+ * 开销低得多。连接速率是瓶颈时可以用setProtocols限定TLSv1.2，代价是恢复的会话沿用原会话的主密钥；
+ * 另外TLS 1.2的close_notify同时关闭两个方向，半关闭无法经由隧道转发，先关闭写入再等待响应的应用会提前断开。
+ */
+public final class TlsConnector {
+    private final TrustManager[] trustManagers;
+    private final SSLContext context;
+    private final boolean sessionResumption;
+    // 允许的协议版本，null时使用JVM默认值
+    private volatile String[] protocols;
+
+    private TlsConnector(TrustManager[] trustManagers, boolean sessionResumption) throws GeneralSecurityException {
+        this.trustManagers = trustManagers;
+        this.context = newContext();
+        this.sessionResumption = sessionResumption;
+    }
+
+    /**
+     * 信任trustStore中的证书，trustStore为null时使用JVM默认的信任库
+     */
+    public static TlsConnector create(KeyStore trustStore, boolean sessionResumption) throws GeneralSecurityException {
+        TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        factory.init(trustStore);
+        return new TlsConnector(factory.getTrustManagers(), sessionResumption);
+    }
+
+    /**
+     * 信任PEM文件中的证书（例如自签名的服务器证书），caFile为null时使用JVM默认的信任库
+     */
+    public static TlsConnector create(File caFile, boolean sessionResumption) throws IOException, GeneralSecurityException {
+        return create(caFile != null ? loadCertificates(caFile) : null, sessionResumption);
+    }
+
+    /**
+     * 将PEM或DER文件中的全部证书读入一个信任库
+     */
+    public static KeyStore loadCertificates(File file) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance(KeyStore.getDefaultType());
+        store.load(null, null);
+        try (InputStream input = new FileInputStream(file)) {
+            int index = 0;
+            for (Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(input)) {
+                store.setCertificateEntry("ca-" + index++, certificate);
+            }
+            if (index == 0) {
+                throw new IOException("No certificates found in " + file);
+            }
+        }
+        return store;
+    }
+
+    private SSLContext newContext() throws GeneralSecurityException {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagers, null);
+        return sslContext;
+    }
+
+    public boolean isSessionResumption() {
+        return sessionResumption;
+    }
+
+    public String[] getProtocols() {
+        return protocols;
+    }
+
+    /**
+     * 限定握手使用的协议版本，例如TLSv1.2；为null时使用JVM默认值
+     */
+    public TlsConnector setProtocols(String... protocols) {
+        this.protocols = protocols;
+        return this;
+    }
+
+    /**
+     * 在socket上完成TLS握手并校验服务器证书与host是否匹配，握手超过timeoutMs时失败；失败时关闭socket
+     *
+     * 会话缓存以host和port为键，同一服务器的后续连接可以恢复会话
+     */
+    public Socket connect(Socket socket, String host, int port, int timeoutMs) throws IOException {
+        try {
+            SSLContext sslContext = sessionResumption ? context : newContext();
+            SSLSocket ssl = (SSLSocket) sslContext.getSocketFactory().createSocket(socket, host, port, true);
+            SSLParameters parameters = ssl.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            if (protocols != null) {
+                parameters.setProtocols(protocols);
+            }
+            ssl.setSSLParameters(parameters);
+
+            int previousTimeout = socket.getSoTimeout();
+            ssl.setSoTimeout(timeoutMs);
+            ssl.startHandshake();
+            ssl.setSoTimeout(previousTimeout);
+            return ssl;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        } catch (GeneralSecurityException e) {
+            socket.close();
+            throw new IOException("Failed to create TLS context: " + e.getMessage(), e);
+        }
+    }
+}
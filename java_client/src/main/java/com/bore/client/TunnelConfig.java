@@ -0,0 +1,178 @@
+package com.bore.client;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 多隧道配置文件，JSON格式：
+ *
+ * <pre>
+ * {
+ *   "to": "bore.example.com",
+ *   "secret": "...",
+ *   "tunnels": [
+ *     {"name": "web", "localPort": 8080, "port": 18080},
+ *     {"name": "db", "localHost": "10.0.0.5", "localPort": 5432, "maxConnections": 64,
+ *      "bandwidthLimit": 10485760, "connectionRateLimit": 100, "idleTimeoutMs": 300000},
+ *     {"name": "api", "localPort": 9000, "backends": ["localhost:9001", "10.0.0.6:9000"]}
+ *   ]
+ * }
+ * </pre>
+ *
+ * 隧道中的to和secret覆盖顶层的默认值；连接数、限速和空闲超时未设置（为0）时使用命令行的默认值。
+ * backends列出localHost:localPort之外的其他本地服务实例，连接在所有实例之间分配
+ */
+public class TunnelConfig {
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+
+    private String to;
+    private String secret;
+    private List<Tunnel> tunnels = new ArrayList<>();
+
+    /**
+     * 读取并校验配置文件
+     */
+    public static TunnelConfig load(File file) throws IOException {
+        TunnelConfig config = objectMapper.readValue(file, TunnelConfig.class);
+        if (config.tunnels == null || config.tunnels.isEmpty()) {
+            throw new IOException("No tunnels configured in " + file);
+        }
+        for (int i = 0; i < config.tunnels.size(); i++) {
+            Tunnel tunnel = config.tunnels.get(i);
+            if (tunnel.name == null) {
+                tunnel.name = "tunnel-" + i;
+            }
+            if (tunnel.localPort <= 0 || tunnel.localPort > 65535) {
+                throw new IOException("Tunnel " + tunnel.name + ": invalid local port " + tunnel.localPort);
+            }
+            if (tunnel.port < 0 || tunnel.port > 65535) {
+                throw new IOException("Tunnel " + tunnel.name + ": invalid remote port " + tunnel.port);
+            }
+            if (tunnel.to == null) {
+                tunnel.to = config.to;
+            }
+            if (tunnel.to == null) {
+                throw new IOException("Tunnel " + tunnel.name + ": no server address");
+            }
+            if (tunnel.secret == null) {
+                tunnel.secret = config.secret;
+            }
+            for (String backend : tunnel.backends) {
+                try {
+                    tunnel.backendAddresses.add(parseAddress(backend));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Tunnel " + tunnel.name + ": " + e.getMessage());
+                }
+            }
+        }
+        return config;
+    }
+
+    /**
+     * 解析host:port形式的地址，IPv6地址写作[::1]:port；不解析主机名
+     */
+    public static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0 || colon == address.length() - 1) {
+            throw new IllegalArgumentException("invalid address " + address + ", expected host:port");
+        }
+        String host = address.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        int port;
+        try {
+            port = Integer.parseInt(address.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            port = -1;
+        }
+        if (port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("invalid port in address " + address);
+        }
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+
+    public List<Tunnel> getTunnels() {
+        return tunnels;
+    }
+
+    /**
+     * 一条本地端口到远程端口的映射
+     */
+    public static class Tunnel {
+        private String name;
+        private String localHost = "localhost";
+        private int localPort;
+        private int port;
+        private String to;
+        private String secret;
+        private int maxConnections;
+        private long bandwidthLimit;
+        private long connectionBandwidthLimit;
+        private int connectionRateLimit;
+        private long idleTimeoutMs;
+        private List<String> backends = new ArrayList<>();
+        @JsonIgnore
+        private final List<InetSocketAddress> backendAddresses = new ArrayList<>();
+
+        public String getName() {
+            return name;
+        }
+
+        public String getLocalHost() {
+            return localHost;
+        }
+
+        public int getLocalPort() {
+            return localPort;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public long getBandwidthLimit() {
+            return bandwidthLimit;
+        }
+
+        public long getConnectionBandwidthLimit() {
+            return connectionBandwidthLimit;
+        }
+
+        public int getConnectionRateLimit() {
+            return connectionRateLimit;
+        }
+
+        public long getIdleTimeoutMs() {
+            return idleTimeoutMs;
+        }
+
+        /**
+         * localHost:localPort之外的其他本地服务实例
+         */
+        public List<InetSocketAddress> getBackends() {
+            return backendAddresses;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.bore.client;
+
+import com.bore.metrics.MetricsRegistry;
+import com.bore.nio.SelectorEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 在同一进程中运行多个隧道，共享NIO引擎、缓冲池和指标注册表
+ *
+ * 每个隧道有独立的控制连接、连接处理线程池、连接数上限和限速，一个隧道的本地服务变慢或不可用时，
+ * 只会占满它自己的线程和连接配额；共享引擎按连接背压，不会因某个连接写不出而阻塞其他连接。
+ */
+public class TunnelGroup implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TunnelGroup.class);
+
+    private final List<Member> members = new ArrayList<>();
+    private final SelectorEngine engine;
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    private TunnelGroup(SelectorEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * 按配置启动所有隧道，每个隧道在独立的线程中连接并自动重连
+     *
+     * NIO转发时所有隧道共用一个引擎，base中未设置指标注册表时创建一个共享的注册表
+     */
+    public static TunnelGroup start(TunnelConfig config, ClientOptions base) throws IOException {
+        SelectorEngine engine = base.getForwardMode() == ClientOptions.ForwardMode.NIO && base.getSelectorEngine() == null
+                ? new SelectorEngine(base.getIoThreads())
+                : null;
+        MetricsRegistry registry = base.getMetricsRegistry() != null ? base.getMetricsRegistry() : new MetricsRegistry();
+
+        TunnelGroup group = new TunnelGroup(engine);
+        for (TunnelConfig.Tunnel tunnel : config.getTunnels()) {
+            ClientOptions options = base.copy().setMetricsRegistry(registry);
+            if (tunnel.getMaxConnections() > 0) {
+                options.setMaxConnections(tunnel.getMaxConnections());
+            }
+            if (tunnel.getBandwidthLimit() > 0) {
+                options.setBandwidthLimit(tunnel.getBandwidthLimit());
+            }
+            if (tunnel.getConnectionBandwidthLimit() > 0) {
+                options.setConnectionBandwidthLimit(tunnel.getConnectionBandwidthLimit());
+            }
+            if (tunnel.getConnectionRateLimit() > 0) {
+                options.setConnectionRateLimit(tunnel.getConnectionRateLimit());
+            }
+            if (tunnel.getIdleTimeoutMs() > 0) {
+                options.setIdleTimeoutMs(tunnel.getIdleTimeoutMs());
+            }
+            if (!tunnel.getBackends().isEmpty()) {
+                options.setLocalBackends(tunnel.getBackends());
+            }
+            if (engine != null) {
+                options.setSelectorEngine(engine);
+            }
+            Member member = group.new Member(tunnel, options);
+            group.members.add(member);
+            Thread thread = new Thread(member::run, "bore-tunnel-" + tunnel.getName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        logger.info("Started {} tunnels", group.members.size());
+        return group;
+    }
+
+    /**
+     * 阻塞直到调用close
+     */
+    public void await() throws InterruptedException {
+        closed.await();
+    }
+
+    @Override
+    public void close() {
+        closed.countDown();
+        synchronized (members) {
+            for (Member member : members) {
+                member.close();
+            }
+        }
+        if (engine != null) {
+            engine.close();
+        }
+    }
+
+    private boolean isClosed() {
+        return closed.getCount() == 0;
+    }
+
+    /**
+     * 组中的一个隧道，首次连接失败时同样按退避重试，不影响其他隧道启动
+     */
+    private final class Member {
+        private final TunnelConfig.Tunnel tunnel;
+        private final ClientOptions options;
+        private volatile ClientSupervisor supervisor;
+
+        private Member(TunnelConfig.Tunnel tunnel, ClientOptions options) {
+            this.tunnel = tunnel;
+            this.options = options;
+        }
+
+        private void run() {
+            long initial = Math.max(1, options.getReconnectInitialBackoffMs());
+            long max = Math.max(initial, options.getReconnectMaxBackoffMs());
+            for (int attempt = 0; !isClosed(); attempt++) {
+                try {
+                    ClientSupervisor created = ClientSupervisor.create(tunnel.getLocalHost(), tunnel.getLocalPort(),
+                            tunnel.getTo(), tunnel.getPort(), tunnel.getSecret(), options);
+                    synchronized (members) {
+                        supervisor = created;
+                        if (isClosed()) {
+                            created.close();
+                            return;
+                        }
+                    }
+                    logger.info("Tunnel {}: {}:{} -> {}:{}", tunnel.getName(), tunnel.getLocalHost(),
+                            tunnel.getLocalPort(), tunnel.getTo(), created.getClient().getRemotePort());
+                    try {
+                        created.run();
+                    } catch (IOException e) {
+                        logger.error("Tunnel {}: stopped: {}", tunnel.getName(), e.getMessage());
+                    }
+                    return;
+                } catch (IOException | TimeoutException e) {
+                    logger.warn("Tunnel {}: failed to connect: {}", tunnel.getName(), e.getMessage());
+                } catch (RuntimeException e) {
+                    logger.error("Tunnel {}: stopped: {}", tunnel.getName(), e.getMessage(), e);
+                    return;
+                }
+                try {
+                    if (closed.await(ClientSupervisor.backoffMs(attempt, initial, max), TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        private void close() {
+            ClientSupervisor current = supervisor;
+            if (current != null) {
+                current.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.bore.client;
+
+import com.bore.shared.Delimited;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 已连接并已认证的数据连接预热池
+ *
+ * 服务器在认证完成后只等待NETWORK_TIMEOUT_MS接收下一条消息，因此池中连接的空闲时间必须短于该值，
+ * 过期的连接会被关闭并重新建立。池的目标大小根据最近的连接到达速率和建立连接耗时自适应调整。
+ */
+class WarmPool implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WarmPool.class);
+
+    // 维护周期（毫秒）
+    private static final long TICK_MS = 100;
+
+    // 到达速率和建连耗时的指数平滑系数
+    private static final double ALPHA = 0.2;
+
+    private final Callable<Delimited> connector;
+    private final ExecutorService openExecutor;
+    private final int minSize;
+    private final int maxSize;
+    private final long maxIdleNanos;
+
+    private final Deque<Entry> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger opening = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder arrivals = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    // 只在调度线程中更新
+    private double arrivalRate;
+    private volatile double setupSeconds = 0.01;
+    private volatile int targetSize;
+
+    private volatile boolean closed;
+
+    WarmPool(Callable<Delimited> connector, ExecutorService openExecutor, int minSize, int maxSize, long maxIdleMs) {
+        this.connector = connector;
+        this.openExecutor = openExecutor;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMs);
+        this.targetSize = minSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bore-warm-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::tick, 0, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取出一个可用的预热连接，池为空时返回null，由调用方自行建立连接
+     */
+    Delimited take() {
+        arrivals.increment();
+        long now = System.nanoTime();
+        Entry entry;
+        // 优先使用最新建立的连接，离过期最远
+        while ((entry = idle.pollLast()) != null) {
+            idleCount.decrementAndGet();
+            if (now - entry.createdNanos < maxIdleNanos) {
+                hits.increment();
+                return entry.stream;
+            }
+            expire(entry);
+        }
+        misses.increment();
+        return null;
+    }
+
+    private void tick() {
+        try {
+            long arrived = arrivals.sumThenReset();
+            double instantRate = arrived * 1000.0 / TICK_MS;
+            arrivalRate = ALPHA * instantRate + (1 - ALPHA) * arrivalRate;
+
+            // 覆盖补充期间到达的连接，留出一倍余量
+            int target = (int) Math.ceil(arrivalRate * setupSeconds * 2);
+            targetSize = Math.max(minSize, Math.min(maxSize, target));
+
+            // 关闭即将被服务器超时断开的连接
+            long now = System.nanoTime();
+            Entry oldest;
+            while ((oldest = idle.peekFirst()) != null && now - oldest.createdNanos >= maxIdleNanos) {
+                if (idle.remove(oldest)) {
+                    idleCount.decrementAndGet();
+                    expire(oldest);
+                }
+            }
+
+            int deficit = targetSize - idleCount.get() - opening.get();
+            for (int i = 0; i < deficit && !closed; i++) {
+                opening.incrementAndGet();
+                try {
+                    openExecutor.submit(this::open);
+                } catch (RejectedExecutionException e) {
+                    opening.decrementAndGet();
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Warm pool maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    private void open() {
+        long start = System.nanoTime();
+        try {
+            Delimited stream = connector.call();
+            long now = System.nanoTime();
+            setupSeconds = ALPHA * ((now - start) / 1e9) + (1 - ALPHA) * setupSeconds;
+            if (closed) {
+                closeQuietly(stream);
+                return;
+            }
+            Entry entry = new Entry(stream, now);
+            idle.offerLast(entry);
+            idleCount.incrementAndGet();
+            // close()可能在上面的检查之后清空了池，此时由这里关闭新连接
+            if (closed && idle.remove(entry)) {
+                idleCount.decrementAndGet();
+                closeQuietly(stream);
+            }
+        } catch (Exception e) {
+            logger.debug("Failed to open warm connection: {}", e.getMessage());
+        } finally {
+            opening.decrementAndGet();
+        }
+    }
+
+    private void expire(Entry entry) {
+        expired.increment();
+        closeQuietly(entry.stream);
+    }
+
+    private static void closeQuietly(Delimited stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 命中率，没有请求时为0
+     */
+    double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    int getTargetSize() {
+        return targetSize;
+    }
+
+    int getIdleCount() {
+        return idleCount.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            closeQuietly(entry.stream);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WarmPool[hits=%d, misses=%d, hitRate=%.3f, expired=%d, idle=%d, target=%d]",
+                getHits(), getMisses(), getHitRate(), expired.sum(), getIdleCount(), targetSize);
+    }
+
+    private static final class Entry {
+        private final Delimited stream;
+        private final long createdNanos;
+
+        private Entry(Delimited stream, long createdNanos) {
+            this.stream = stream;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.bore.compress;
+
+import com.bore.metrics.ClientMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * 将每次写入的数据压缩为一帧写出，压缩没有收益时原样发送，由单个线程写入
+ *
+ * 压缩器在关闭时归还给其他连接使用，因此关闭会等待进行中的写入结束；调用方应先关闭底层的Socket
+ */
+final class CompressingOutputStream extends OutputStream {
+    private static final Logger logger = LoggerFactory.getLogger(CompressingOutputStream.class);
+
+    private final OutputStream out;
+    private final Compression compression;
+    private final ClientMetrics metrics;
+    private final Deflater deflater;
+    // 帧头和负载，一帧只调用一次底层写入
+    private byte[] frame = new byte[0];
+    // 压缩器的状态与对端不一致，下一个压缩帧需要对端重置解压器
+    private boolean reset;
+    private long windowRaw;
+    private long windowWire;
+    private long bypassRemaining;
+    private boolean closed;
+
+    CompressingOutputStream(OutputStream out, Compression compression, ClientMetrics metrics) {
+        this.out = out;
+        this.compression = compression;
+        this.metrics = metrics;
+        this.deflater = compression.acquireDeflater();
+        if (compression.isBypassing()) {
+            bypassRemaining = Compression.BYPASS_BYTES;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            int chunk = Math.min(len, Compression.MAX_CHUNK);
+            writeChunk(b, off, chunk);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    private void writeChunk(byte[] b, int off, int len) throws IOException {
+        if (len < Compression.MIN_COMPRESS_SIZE) {
+            writeRaw(b, off, len);
+            return;
+        }
+        if (bypassRemaining > 0) {
+            bypassRemaining -= len;
+            writeRaw(b, off, len);
+            if (metrics != null) {
+                metrics.recordCompressionBypass(len);
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+        int compressed = deflate(b, off, len);
+        long nanos = System.nanoTime() - start;
+        int wire;
+        if (compressed >= 0) {
+            writeFrame(reset ? Compression.DEFLATE_RESET : Compression.DEFLATE, compressed);
+            reset = false;
+            wire = compressed;
+        } else {
+            // 压缩器已记录这段数据而对端不会收到，重置后下一个压缩帧从新的压缩流开始
+            deflater.reset();
+            reset = true;
+            writeRaw(b, off, len);
+            wire = len;
+            if (metrics != null) {
+                metrics.recordCompressionBypass(len);
+            }
+        }
+        if (metrics != null) {
+            metrics.recordCompression(len, wire, nanos);
+        }
+
+        windowRaw += len;
+        windowWire += wire;
+        if (windowRaw >= Compression.RATIO_WINDOW) {
+            boolean poor = windowWire > windowRaw * Compression.MAX_RATIO;
+            compression.reportRatio(poor);
+            if (poor) {
+                logger.debug("Compression ratio {} is poor, sending the next {} bytes uncompressed",
+                        String.format("%.2f", (double) windowWire / windowRaw), Compression.BYPASS_BYTES);
+                bypassRemaining = Compression.BYPASS_BYTES;
+                deflater.reset();
+                reset = true;
+            }
+            windowRaw = 0;
+            windowWire = 0;
+        }
+    }
+
+    /**
+     * 压缩并同步刷新一个数据块，结果位于frame的帧头之后；压缩后不比原始数据小时返回-1
+     */
+    private int deflate(byte[] b, int off, int len) {
+        // 输出空间只比原始数据多一个帧头，写满即说明压缩没有收益，不必继续
+        ensureCapacity(Compression.HEADER_SIZE + len);
+        deflater.setInput(b, off, len);
+        int space = len;
+        int n = deflater.deflate(frame, Compression.HEADER_SIZE, space, Deflater.SYNC_FLUSH);
+        return n < space ? n : -1;
+    }
+
+    private void writeRaw(byte[] b, int off, int len) throws IOException {
+        ensureCapacity(Compression.HEADER_SIZE + len);
+        System.arraycopy(b, off, frame, Compression.HEADER_SIZE, len);
+        writeFrame(Compression.RAW, len);
+    }
+
+    private void writeFrame(byte type, int length) throws IOException {
+        frame[0] = type;
+        frame[1] = (byte) (length >>> 24);
+        frame[2] = (byte) (length >>> 16);
+        frame[3] = (byte) (length >>> 8);
+        frame[4] = (byte) length;
+        out.write(frame, 0, Compression.HEADER_SIZE + length);
+    }
+
+    private void ensureCapacity(int size) {
+        if (frame.length < size) {
+            frame = new byte[Math.max(size, Math.min(frame.length * 2, Compression.HEADER_SIZE + Compression.MAX_CHUNK))];
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * 归还压缩器，不关闭底层的流
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            compression.releaseDeflater(deflater);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.bore.compress;
+
+import com.bore.metrics.ClientMetrics;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 数据连接上的流式压缩，由ExtendedHello中的Compress扩展启用
+ *
+ * 每次写出的数据块单独成帧，用deflate最快级别压缩并同步刷新，对端收到一帧即可解压出全部数据，
+ * 交互式流量不会因等待凑满缓冲区而延迟。压缩后没有变小的数据块原样发送；一个窗口内的整体压缩率较差时
+ * （例如已压缩的图片或TLS流量）暂停压缩一段数据，省去无用的CPU开销，之后再重新尝试。
+ * 判定结果在同一隧道的流之间共享一段时间，大量短连接传输不可压缩的数据时，每个连接不必各自试压一个窗口。
+ *
+ * 帧格式：类型(1字节) + 负载长度(4字节，大端) + 负载。RAW帧的负载是原始数据；DEFLATE帧的负载接续之前的压缩流，
+ * DEFLATE_RESET帧的负载是新的压缩流，接收方先重置解压器。
+ */
+public final class Compression {
+    static final int HEADER_SIZE = 5;
+
+    static final byte RAW = 0;
+    static final byte DEFLATE = 1;
+    static final byte DEFLATE_RESET = 2;
+
+    // 单帧负载的上限，更大的写入拆分为多帧
+    static final int MAX_CHUNK = 64 * 1024;
+
+    // 小于该大小的数据块压缩后不会更小，直接原样发送
+    static final int MIN_COMPRESS_SIZE = 64;
+
+    // 统计压缩率的窗口大小
+    static final long RATIO_WINDOW = 64 * 1024;
+
+    // 窗口内压缩后大小超过原始大小的该比例时暂停压缩
+    static final double MAX_RATIO = 0.9;
+
+    // 暂停压缩后原样发送的字节数，之后重新尝试压缩
+    static final long BYPASS_BYTES = 4 * 1024 * 1024;
+
+    // 压缩率差的判定对新建的流生效的时间
+    private static final long BYPASS_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // 保留的空闲压缩器和解压器数量；zlib初始化时分配数百KB的状态，短连接复用可省去这部分开销
+    private static final int MAX_POOLED = 64;
+
+    private final ClientMetrics metrics;
+    // 新建的流在此之前直接原样发送，0表示不跳过
+    private volatile long bypassUntil;
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+    private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    /**
+     * 不记录指标的压缩编解码
+     */
+    public Compression() {
+        this(null);
+    }
+
+    /**
+     * 节省的字节数和压缩耗时记录到metrics（可为null）
+     */
+    public Compression(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 返回压缩写入output的流，每次write的数据在返回前写出；关闭返回的流只归还压缩器，不关闭output
+     */
+    public OutputStream encoder(OutputStream output) {
+        return new CompressingOutputStream(output, this, metrics);
+    }
+
+    /**
+     * 返回解压从input读出的帧的流；关闭返回的流只归还解压器，不关闭input
+     */
+    public InputStream decoder(InputStream input) {
+        return decoder(new byte[0], input);
+    }
+
+    /**
+     * 返回解压帧的流，先读取buffered（握手时已从input读入缓冲区的数据）再读取input
+     *
+     * input结束时不会被关闭，Socket的输入流关闭会关闭整个Socket，而另一个方向可能仍在写入
+     */
+    public InputStream decoder(byte[] buffered, InputStream input) {
+        return new DecompressingInputStream(buffered, input, this, metrics);
+    }
+
+    Deflater acquireDeflater() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(Deflater.BEST_SPEED, true);
+    }
+
+    void releaseDeflater(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 最近是否有流判定压缩率差
+     */
+    boolean isBypassing() {
+        long until = bypassUntil;
+        return until != 0 && System.nanoTime() - until < 0;
+    }
+
+    /**
+     * 记录一个流对最近一个窗口的判定
+     */
+    void reportRatio(boolean poor) {
+        if (poor) {
+            bypassUntil = System.nanoTime() + BYPASS_NANOS | 1;
+        } else if (bypassUntil != 0) {
+            bypassUntil = 0;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.bore.compress;
+
+import com.bore.metrics.ClientMetrics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 读取CompressingOutputStream写出的帧并解压，由单个线程读取
+ *
+ * 解压器在关闭时归还给其他连接使用，因此关闭会等待进行中的读取结束；调用方应先关闭底层的Socket
+ */
+final class DecompressingInputStream extends InputStream {
+    private final InputStream in;
+    // 在in之前读取的数据
+    private final byte[] buffered;
+    private int bufferedPos;
+    private final Compression compression;
+    private final ClientMetrics metrics;
+    private final Inflater inflater;
+    private final byte[] header = new byte[Compression.HEADER_SIZE];
+    private byte[] payload = new byte[0];
+    // 当前RAW帧中尚未读出的字节数
+    private int rawRemaining;
+    // 当前压缩帧的大小、已解压的字节数和耗时，整帧解压完后记录
+    private int frameWire;
+    private long frameRaw;
+    private long frameNanos;
+    private boolean closed;
+
+    DecompressingInputStream(byte[] buffered, InputStream in, Compression compression, ClientMetrics metrics) {
+        this.buffered = buffered;
+        this.in = in;
+        this.compression = compression;
+        this.metrics = metrics;
+        this.inflater = compression.acquireInflater();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (rawRemaining > 0) {
+                int n = readInput(b, off, Math.min(len, rawRemaining));
+                if (n < 0) {
+                    throw new EOFException("Truncated compressed stream");
+                }
+                rawRemaining -= n;
+                return n;
+            }
+            if (!inflater.needsInput()) {
+                int n = inflate(b, off, len);
+                if (n > 0) {
+                    return n;
+                }
+                if (!inflater.needsInput()) {
+                    throw new IOException("Invalid compressed frame");
+                }
+            }
+            // 同步刷新的帧在输入耗尽时已全部解压
+            if (!nextFrame()) {
+                return -1;
+            }
+        }
+    }
+
+    private int inflate(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int n;
+        try {
+            n = inflater.inflate(b, off, len);
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed frame: " + e.getMessage());
+        }
+        frameNanos += System.nanoTime() - start;
+        frameRaw += n;
+        return n;
+    }
+
+    /**
+     * 读取下一帧的帧头，压缩帧的负载交给解压器；对端在帧边界结束时返回false
+     */
+    private boolean nextFrame() throws IOException {
+        if (frameWire > 0) {
+            if (metrics != null) {
+                metrics.recordDecompression(frameWire, frameRaw, frameNanos);
+            }
+            frameWire = 0;
+            frameRaw = 0;
+            frameNanos = 0;
+        }
+
+        if (readInput(header, 0, 1) < 0) {
+            return false;
+        }
+        int type = header[0];
+        readFully(header, 1, Compression.HEADER_SIZE - 1);
+        int length = (header[1] & 0xff) << 24 | (header[2] & 0xff) << 16 | (header[3] & 0xff) << 8 | header[4] & 0xff;
+        if (length < 0 || length > Compression.MAX_CHUNK) {
+            throw new IOException("Invalid compressed frame length " + length);
+        }
+
+        switch (type) {
+            case Compression.RAW:
+                rawRemaining = length;
+                return true;
+            case Compression.DEFLATE_RESET:
+            case Compression.DEFLATE:
+                if (type == Compression.DEFLATE_RESET) {
+                    inflater.reset();
+                }
+                if (payload.length < length) {
+                    payload = new byte[Math.max(length, Math.min(payload.length * 2, Compression.MAX_CHUNK))];
+                }
+                readFully(payload, 0, length);
+                inflater.setInput(payload, 0, length);
+                frameWire = length;
+                return true;
+            default:
+                throw new IOException("Unknown compressed frame type " + type);
+        }
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = readInput(b, off, len);
+            if (n < 0) {
+                throw new EOFException("Truncated compressed stream");
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    private int readInput(byte[] b, int off, int len) throws IOException {
+        if (bufferedPos < buffered.length) {
+            int n = Math.min(len, buffered.length - bufferedPos);
+            System.arraycopy(buffered, bufferedPos, b, off, n);
+            bufferedPos += n;
+            return n;
+        }
+        return in.read(b, off, len);
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        // 压缩帧解压前不知道能得到多少数据
+        if (rawRemaining == 0) {
+            return 0;
+        }
+        int available = bufferedPos < buffered.length ? buffered.length - bufferedPos : in.available();
+        return Math.min(rawRemaining, available);
+    }
+
+    /**
+     * 归还解压器，不关闭底层的流
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            compression.releaseInflater(inflater);
+        }
+    }
+}
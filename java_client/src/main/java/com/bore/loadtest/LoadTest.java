@@ -0,0 +1,472 @@
+package com.bore.loadtest;
+
+import com.bore.client.Client;
+import com.bore.client.ClientOptions;
+import com.bore.client.TlsConnector;
+import com.bore.metrics.Histogram;
+import com.bore.metrics.MetricsRegistry;
+import com.bore.server.Server;
+import com.bore.server.ServerOptions;
+import com.bore.util.SocketProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import javax.net.ssl.SSLContext;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端隧道压力测试：在本地回环上启动测试服务器、本地服务和若干客户端，
+ * 由并发用户通过公共端口反复建立连接并收发数据，最后报告连接速率、延迟分位数和吞吐量
+ *
+ * 服务器可以是进程内的测试服务器、Java服务器，或通过--server-address指定的外部服务器（例如Rust服务器），
+ * 用同样的负载比较不同实现；--hold在测试期间保持大量空闲连接，观察并发连接数对延迟和线程数的影响；
+ * --tls使用自签名证书的TLS测试服务器，配合--tls-full-handshake比较会话恢复与完整握手的连接速率；
+ * --backends启动多个本地服务实例，配合--stop-backend-after观察实例停止后连接的分配和失败数
+ */
+@Command(name = "bore-loadtest", mixinStandardHelpOptions = true,
+        description = "End-to-end load test of the bore client and server on the loopback interface")
+public class LoadTest implements Callable<Integer> {
+    private static final Logger log = LoggerFactory.getLogger(LoadTest.class);
+
+    /**
+     * 进程内启动的服务器
+     */
+    public enum ServerKind {
+        // 每个连接一个线程的测试服务器，支持全部协议扩展
+        STANDIN,
+        // com.bore.server中的非阻塞服务器
+        JAVA
+    }
+
+    /**
+     * 每个连接发送的数据内容
+     */
+    public enum PayloadData {
+        // 全零字节
+        ZEROS,
+        // 类似JSON接口响应的文本，压缩率与实际的文本流量相近
+        TEXT,
+        // 随机字节，无法压缩
+        RANDOM
+    }
+
+    @Option(names = {"--tunnels"}, description = "Number of tunnel clients", defaultValue = "1")
+    private int tunnels;
+
+    @Option(names = {"-c", "--concurrency"}, description = "Concurrent users across all tunnels", defaultValue = "32")
+    private int concurrency;
+
+    @Option(names = {"-d", "--duration"}, description = "Test duration in seconds", defaultValue = "10")
+    private int duration;
+
+    @Option(names = {"--payload"}, description = "Bytes sent per connection", defaultValue = "4096")
+    private int payload;
+
+    @Option(names = {"--payload-data"}, description = "Content of the payload: ${COMPLETION-CANDIDATES}", defaultValue = "ZEROS")
+    private PayloadData payloadData;
+
+    @Option(names = {"--backends"}, description = "Number of local service instances to balance across", defaultValue = "1")
+    private int backends;
+
+    @Option(names = {"--balance-policy"}, description = "How to pick a local backend: ${COMPLETION-CANDIDATES}", defaultValue = "LEAST_CONNECTIONS")
+    private ClientOptions.BalancePolicy balancePolicy;
+
+    @Option(names = {"--stop-backend-after"}, description = "Stop the last local backend this many seconds into the test (0 = never)", defaultValue = "0")
+    private int stopBackendAfter;
+
+    @Option(names = {"--service"}, description = "Local service behaviour: ${COMPLETION-CANDIDATES}", defaultValue = "ECHO")
+    private LocalService.Mode service;
+
+    @Option(names = {"-s", "--secret"}, description = "Optional secret for authentication")
+    private String secret;
+
+    @Option(names = {"--forward-mode"}, description = "Data forwarding engine: ${COMPLETION-CANDIDATES}", defaultValue = "BLOCKING")
+    private ClientOptions.ForwardMode forwardMode;
+
+    @Option(names = {"--threads"}, description = "Thread type for connection handling: ${COMPLETION-CANDIDATES}", defaultValue = "PLATFORM")
+    private ClientOptions.ThreadMode threadMode;
+
+    @Option(names = {"--warm-pool"}, description = "Keep a pool of pre-authenticated data connections")
+    private boolean warmPool;
+
+    @Option(names = {"--parallel-dial"}, description = "Connect to the local service while the remote handshake is in flight")
+    private boolean parallelDial;
+
+    @Option(names = {"--multiplex"}, description = "Multiplex tunneled connections over a few server connections")
+    private boolean multiplex;
+
+    @Option(names = {"--binary-control"}, description = "Use binary control frames")
+    private boolean binaryControl;
+
+    @Option(names = {"--compress"}, description = "Compress tunneled data on the server connections")
+    private boolean compress;
+
+    @Option(names = {"--tls"}, description = "Use TLS for control and data connections (the stand-in server gets a self-signed certificate)")
+    private boolean tls;
+
+    @Option(names = {"--tls-full-handshake"}, description = "Disable TLS session resumption so every connection does a full handshake")
+    private boolean tlsFullHandshake;
+
+    @Option(names = {"--tls-protocols"}, split = ",", description = "TLS protocol versions to offer, e.g. TLSv1.2 (default: JVM default)")
+    private String[] tlsProtocols;
+
+    @Option(names = {"--tls-ca"}, description = "PEM file with the certificate of the server given by --server-address (default: JVM trust store)")
+    private File tlsCa;
+
+    @Option(names = {"--socket-profile"}, description = "TCP options and write strategy: ${COMPLETION-CANDIDATES}", defaultValue = "LATENCY")
+    private SocketProfile socketProfile;
+
+    @Option(names = {"--server"}, description = "In-process server: ${COMPLETION-CANDIDATES}", defaultValue = "STANDIN")
+    private ServerKind serverKind;
+
+    @Option(names = {"--server-address"}, description = "Use an already running server at host[:control-port] instead, e.g. the Rust server")
+    private String serverAddress;
+
+    @Option(names = {"--hold"}, description = "Idle connections to open through the tunnels and keep open during the test", defaultValue = "0")
+    private int hold;
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new LoadTest()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        List<Closeable> resources = new ArrayList<>();
+        List<LocalService> locals = new ArrayList<>();
+        try {
+            if (backends < 1) {
+                throw new IllegalArgumentException("--backends must be at least 1");
+            }
+            for (int i = 0; i < backends; i++) {
+                locals.add(new LocalService(service));
+            }
+            LocalService local = locals.get(0);
+            String host = "127.0.0.1";
+            int controlPort;
+            SelfSignedCertificate certificate = null;
+            if (tls && serverAddress == null) {
+                if (serverKind != ServerKind.STANDIN) {
+                    throw new IllegalArgumentException("--tls requires the stand-in server or --server-address");
+                }
+                certificate = SelfSignedCertificate.generate();
+            }
+            if (serverAddress != null) {
+                int colon = serverAddress.lastIndexOf(':');
+                host = colon >= 0 ? serverAddress.substring(0, colon) : serverAddress;
+                controlPort = colon >= 0 ? Integer.parseInt(serverAddress.substring(colon + 1)) : new ClientOptions().getControlPort();
+            } else if (serverKind == ServerKind.JAVA) {
+                InetAddress loopback = InetAddress.getLoopbackAddress();
+                Server server = Server.create(secret, new ServerOptions()
+                        .setControlPort(0)
+                        .setBindAddr(loopback)
+                        .setBindTunnels(loopback));
+                resources.add(server);
+                executor.submit(() -> {
+                    server.listen();
+                    return null;
+                });
+                controlPort = server.getControlPort();
+            } else {
+                SSLContext sslContext = certificate != null ? certificate.serverContext() : null;
+                StandInServer server = new StandInServer(0, secret, sslContext);
+                resources.add(server);
+                server.start();
+                controlPort = server.getControlPort();
+            }
+
+            ClientOptions options = new ClientOptions()
+                    .setControlPort(controlPort)
+                    .setForwardMode(forwardMode)
+                    .setThreadMode(threadMode)
+                    .setWarmPoolEnabled(warmPool)
+                    .setParallelDial(parallelDial)
+                    .setMultiplex(multiplex)
+                    .setBinaryControl(binaryControl)
+                    .setCompression(compress)
+                    .setSocketProfile(socketProfile)
+                    .setBalancePolicy(balancePolicy);
+            List<InetSocketAddress> others = new ArrayList<>();
+            for (LocalService other : locals.subList(1, locals.size())) {
+                others.add(InetSocketAddress.createUnresolved("127.0.0.1", other.getPort()));
+            }
+            options.setLocalBackends(others);
+            // --hold打开的连接数可能超过默认上限，负载测试不限制
+            options.setMaxConnections(0);
+            MetricsRegistry registry = new MetricsRegistry();
+            options.setMetricsRegistry(registry);
+            if (tls) {
+                TlsConnector connector = certificate != null
+                        ? TlsConnector.create(certificate.trustStore(), !tlsFullHandshake)
+                        : TlsConnector.create(tlsCa, !tlsFullHandshake);
+                options.setTls(connector.setProtocols(tlsProtocols));
+            }
+
+            List<Client> clients = new ArrayList<>();
+            for (int i = 0; i < tunnels; i++) {
+                Client client = Client.create("127.0.0.1", local.getPort(), host, 0, secret, options);
+                clients.add(client);
+                resources.add(client);
+                executor.submit(() -> {
+                    client.listen();
+                    return null;
+                });
+            }
+
+            List<Socket> held = openHeld(host, clients);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+            List<Future<Worker>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                Worker worker = new Worker(host, clients.get(i % tunnels).getRemotePort(), deadline);
+                futures.add(executor.submit(worker));
+            }
+
+            if (stopBackendAfter > 0 && locals.size() > 1) {
+                LocalService stopped = locals.get(locals.size() - 1);
+                executor.submit(() -> {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(stopBackendAfter));
+                    log.info("Stopping local backend on port {}", stopped.getPort());
+                    stopped.close();
+                    return null;
+                });
+            }
+
+            long start = System.nanoTime();
+            Report report = new Report();
+            for (Future<Worker> future : futures) {
+                report.add(future.get());
+            }
+            report.print(System.nanoTime() - start);
+            if (compress) {
+                printCompression(registry);
+            }
+            if (tls) {
+                Histogram handshake = clients.get(0).getMetrics().getRemoteHandshake();
+                System.out.printf("data connection handshake (ms): p50=%.3f p99=%.3f, %d handshakes%n",
+                        handshake.getValueAtQuantile(0.5) / 1e6, handshake.getValueAtQuantile(0.99) / 1e6,
+                        handshake.getCount());
+            }
+            if (locals.size() > 1) {
+                for (LocalService backend : locals) {
+                    System.out.printf("backend %d: %d connections%n", backend.getPort(), backend.getAcceptedConnections());
+                }
+            }
+            if (!held.isEmpty()) {
+                System.out.printf("held connections: %d, live threads: %d%n", held.size(),
+                        ManagementFactory.getThreadMXBean().getThreadCount());
+                held.forEach(LoadTest::closeQuietly);
+            }
+        } finally {
+            for (int i = resources.size() - 1; i >= 0; i--) {
+                closeQuietly(resources.get(i));
+            }
+            locals.forEach(LoadTest::closeQuietly);
+            executor.shutdownNow();
+        }
+        return 0;
+    }
+
+    /**
+     * 打印所有隧道的压缩指标：节省的字节数、原样发送的字节数和压缩耗时
+     */
+    private static void printCompression(MetricsRegistry registry) {
+        for (String line : registry.scrape().split("\n")) {
+            if (line.startsWith("bore_compression_saved_bytes_total") || line.startsWith("bore_compression_bypassed_bytes_total")
+                    || line.startsWith("bore_compression_seconds_sum") || line.startsWith("bore_bytes_sent_total")) {
+                System.out.println(line);
+            }
+        }
+    }
+
+    /**
+     * 生成一个连接发送的数据
+     */
+    private byte[] payload() {
+        byte[] data = new byte[payload];
+        switch (payloadData) {
+            case TEXT:
+                Random random = new Random();
+                StringBuilder text = new StringBuilder(payload + 128);
+                while (text.length() < payload) {
+                    text.append("{\"id\":").append(random.nextInt(1_000_000))
+                            .append(",\"user\":\"user").append(random.nextInt(10_000))
+                            .append("\",\"status\":\"").append(random.nextBoolean() ? "active" : "disabled")
+                            .append("\",\"score\":").append(random.nextInt(100)).append("}\n");
+                }
+                byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(bytes, 0, data, 0, payload);
+                break;
+            case RANDOM:
+                new Random().nextBytes(data);
+                break;
+            default:
+                break;
+        }
+        return data;
+    }
+
+    /**
+     * 打开--hold指定数量的连接，每个连接完成一次往返以确认已转接到本地服务，之后保持空闲
+     */
+    private List<Socket> openHeld(String host, List<Client> clients) throws IOException {
+        List<Socket> held = new ArrayList<>(hold);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < hold; i++) {
+                Socket socket = new Socket(host, clients.get(i % tunnels).getRemotePort());
+                held.add(socket);
+                socket.setSoTimeout(10_000);
+                socket.getOutputStream().write(1);
+                if (service == LocalService.Mode.ECHO && socket.getInputStream().read() < 0) {
+                    throw new IOException("Held connection " + i + " closed");
+                }
+            }
+        } catch (IOException e) {
+            held.forEach(LoadTest::closeQuietly);
+            throw e;
+        }
+        if (hold > 0) {
+            System.out.printf("opened %d held connections in %.1f s%n", hold, (System.nanoTime() - start) / 1e9);
+        }
+        return held;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
+        }
+    }
+
+    /**
+     * 单个并发用户，在截止时间前反复建立连接
+     */
+    private final class Worker implements Callable<Worker> {
+        private final String host;
+        private final int port;
+        private final long deadline;
+        private final byte[] data;
+        private final byte[] buffer = new byte[16 * 1024];
+        private long[] latencies = new long[1024];
+        private int count;
+        private long bytes;
+        private long errors;
+
+        private Worker(String host, int port, long deadline) {
+            this.host = host;
+            this.port = port;
+            this.deadline = deadline;
+            this.data = payload();
+        }
+
+        @Override
+        public Worker call() {
+            while (System.nanoTime() < deadline) {
+                try {
+                    runOnce();
+                } catch (IOException e) {
+                    errors++;
+                    log.debug("Load test connection failed: {}", e.getMessage());
+                }
+            }
+            return this;
+        }
+
+        private void runOnce() throws IOException {
+            long start = System.nanoTime();
+            try (Socket socket = new Socket(host, port)) {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(10_000);
+                OutputStream output = socket.getOutputStream();
+                InputStream input = socket.getInputStream();
+                output.write(data);
+
+                long expected = service == LocalService.Mode.ECHO ? payload : 1;
+                if (service == LocalService.Mode.SINK) {
+                    socket.shutdownOutput();
+                }
+
+                long firstByte = 0;
+                long received = 0;
+                while (received < expected) {
+                    int n = input.read(buffer);
+                    if (n < 0) {
+                        throw new IOException("Unexpected EOF after " + received + " bytes");
+                    }
+                    if (firstByte == 0) {
+                        firstByte = System.nanoTime();
+                    }
+                    received += n;
+                }
+
+                record(firstByte - start);
+                bytes += payload + received;
+            }
+        }
+
+        private void record(long latency) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+        }
+    }
+
+    /**
+     * 汇总所有用户的结果
+     */
+    private static final class Report {
+        private long[] latencies = new long[0];
+        private long bytes;
+        private long errors;
+
+        private void add(Worker worker) {
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + worker.count);
+            System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+            bytes += worker.bytes;
+            errors += worker.errors;
+        }
+
+        private void print(long elapsedNanos) {
+            Arrays.sort(latencies);
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("connections: %d ok, %d failed in %.1f s%n", latencies.length, errors, seconds);
+            System.out.printf("connections/sec: %.1f%n", latencies.length / seconds);
+            System.out.printf("latency to first byte (ms): p50=%.3f p99=%.3f p999=%.3f max=%.3f%n",
+                    percentile(0.5), percentile(0.99), percentile(0.999), percentile(1.0));
+            System.out.printf("throughput: %.2f MB/s%n", bytes / seconds / (1024 * 1024));
+        }
+
+        private double percentile(double q) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(q * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1e6;
+        }
+    }
+}
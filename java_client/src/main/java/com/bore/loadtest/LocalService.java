@@ -0,0 +1,105 @@
+package com.bore.loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 被隧道暴露的本地测试服务
+ */
+public class LocalService implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(LocalService.class);
+
+    /**
+     * 服务行为
+     */
+    public enum Mode {
+        // 原样返回收到的数据
+        ECHO,
+        // 丢弃收到的数据，对端半关闭后回复一个字节
+        SINK
+    }
+
+    private final ServerSocket server;
+    private final Mode mode;
+    private final ExecutorService executor;
+    private final LongAdder accepted = new LongAdder();
+    private volatile boolean running = true;
+
+    public LocalService(Mode mode) throws IOException {
+        this.server = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        this.mode = mode;
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "bore-local-service");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.submit(this::acceptLoop);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * 已接受的连接数
+     */
+    public long getAcceptedConnections() {
+        return accepted.sum();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                accepted.increment();
+                socket.setTcpNoDelay(true);
+                executor.submit(() -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Local service accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        byte[] buffer = new byte[16 * 1024];
+        try (Socket s = socket) {
+            InputStream input = s.getInputStream();
+            OutputStream output = s.getOutputStream();
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                if (mode == Mode.ECHO) {
+                    output.write(buffer, 0, n);
+                }
+            }
+            if (mode == Mode.SINK) {
+                output.write(1);
+            }
+        } catch (IOException e) {
+            // 连接可能已关闭，这是预期的
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,94 @@
+package com.bore.loadtest;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地回环地址的自签名证书，由JDK自带的keytool生成，供TLS测试服务器和客户端使用
+ */
+final class SelfSignedCertificate {
+    private static final String ALIAS = "bore";
+    private static final char[] PASSWORD = "bore-test".toCharArray();
+
+    private final KeyStore keyStore;
+
+    private SelfSignedCertificate(KeyStore keyStore) {
+        this.keyStore = keyStore;
+    }
+
+    /**
+     * 生成EC P-256密钥和证书，证书对localhost和127.0.0.1有效
+     */
+    static SelfSignedCertificate generate() throws IOException, GeneralSecurityException {
+        File file = File.createTempFile("bore-tls", ".p12");
+        try {
+            // keytool不覆盖已存在的密钥库
+            if (!file.delete()) {
+                throw new IOException("Cannot replace " + file);
+            }
+            String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+            List<String> command = Arrays.asList(keytool, "-genkeypair", "-alias", ALIAS,
+                    "-keyalg", "EC", "-keysize", "256", "-sigalg", "SHA256withECDSA",
+                    "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "2",
+                    "-storetype", "PKCS12", "-keystore", file.getPath(),
+                    "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (InputStream input = process.getInputStream()) {
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, n);
+                }
+            }
+            try {
+                if (!process.waitFor(30, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                    throw new IOException("keytool failed: " + new String(output.toByteArray(), StandardCharsets.UTF_8));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while running keytool");
+            }
+
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            try (InputStream input = new FileInputStream(file)) {
+                keyStore.load(input, PASSWORD);
+            }
+            return new SelfSignedCertificate(keyStore);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * 使用该证书的服务器端SSLContext
+     */
+    SSLContext serverContext() throws GeneralSecurityException {
+        KeyManagerFactory factory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        factory.init(keyStore, PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(factory.getKeyManagers(), null, null);
+        return context;
+    }
+
+    /**
+     * 只包含该证书的信任库
+     */
+    KeyStore trustStore() throws GeneralSecurityException, IOException {
+        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry(ALIAS, keyStore.getCertificate(ALIAS));
+        return trustStore;
+    }
+}
@@ -0,0 +1,281 @@
+package com.bore.loadtest;
+
+import com.bore.auth.Authenticator;
+import com.bore.compress.Compression;
+import com.bore.mux.MuxConnection;
+import com.bore.mux.MuxStream;
+import com.bore.shared.ClientMessage;
+import com.bore.shared.Delimited;
+import com.bore.shared.Feature;
+import com.bore.shared.ServerMessage;
+import com.bore.util.SocketProfile;
+import com.bore.util.StreamUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.Closeable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 进程内的bore协议测试服务器，与Rust服务器使用相同的空字符分隔JSON协议，只监听本地回环地址
+ *
+ * 额外支持ExtendedHello协商的全部协议扩展：Multiplex将数据连接切换为多路复用帧，Binary在Hello之后使用二进制控制帧，
+ * Compress压缩协商了该扩展的客户端的数据连接（多路复用的流不压缩）。
+ * 指定SSLContext时控制端口（包括数据连接）只接受TLS连接，公共端口仍是明文
+ */
+public class StandInServer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(StandInServer.class);
+
+    // 未被接受的连接的保留时间，与Rust服务器一致
+    private static final long STALE_CONNECTION_SECONDS = 10;
+
+    // 没有新连接时发送心跳的间隔
+    private static final int HEARTBEAT_INTERVAL_MS = 500;
+
+    private final ServerSocket control;
+    private final Authenticator auth;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<UUID, Socket> pending = new ConcurrentHashMap<>();
+    // 协商了压缩的客户端的待处理连接，对应该客户端的压缩编解码
+    private final ConcurrentMap<UUID, Compression> compressed = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    /**
+     * 在指定控制端口上创建服务器，端口为0时自动选择
+     */
+    public StandInServer(int controlPort, String secret) throws IOException {
+        this(controlPort, secret, null);
+    }
+
+    /**
+     * 创建控制端口使用TLS的服务器，sslContext为null时使用明文；握手在处理连接的线程中进行
+     */
+    public StandInServer(int controlPort, String secret, SSLContext sslContext) throws IOException {
+        this.control = sslContext != null
+                ? sslContext.getServerSocketFactory().createServerSocket(controlPort, 1024, InetAddress.getLoopbackAddress())
+                : new ServerSocket(controlPort, 1024, InetAddress.getLoopbackAddress());
+        this.auth = secret != null && !secret.isEmpty() ? new Authenticator(secret) : null;
+        this.executor = Executors.newCachedThreadPool(daemon("bore-standin"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemon("bore-standin-expiry"));
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public int getControlPort() {
+        return control.getLocalPort();
+    }
+
+    /**
+     * 在后台线程中开始接受控制连接
+     */
+    public void start() {
+        executor.submit(this::acceptLoop);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = control.accept();
+                // TLS握手由多个小记录组成，不关闭Nagle算法时每个来回都要等待延迟确认
+                socket.setTcpNoDelay(true);
+                executor.submit(() -> handle(socket));
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Stand-in server accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Delimited stream = new Delimited(socket)) {
+            if (auth != null) {
+                try {
+                    auth.serverHandshake(stream);
+                } catch (IOException | TimeoutException e) {
+                    logger.warn("Server handshake failed: {}", e.getMessage());
+                    stream.send(ServerMessage.error(e.getMessage()));
+                    return;
+                }
+            }
+
+            ClientMessage message = stream.recvTimeout(ClientMessage.class);
+            if (message == null) {
+                return;
+            }
+            switch (message.getType()) {
+                case HELLO:
+                    handleHello(stream, null);
+                    break;
+                case EXTENDED_HELLO:
+                    handleHello(stream, message.getFeatures());
+                    break;
+                case MULTIPLEX:
+                    handleMultiplex(stream);
+                    break;
+                case ACCEPT:
+                    handleAccept(stream, message.getAcceptId());
+                    break;
+                default:
+                    logger.warn("Unexpected authenticate");
+                    break;
+            }
+        } catch (IOException | TimeoutException e) {
+            logger.debug("Stand-in connection exited with error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 为客户端分配公共端口，并为每个入站连接发送Connection消息
+     */
+    private void handleHello(Delimited stream, Set<Feature> features) throws IOException {
+        try (ServerSocket listener = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress())) {
+            listener.setSoTimeout(HEARTBEAT_INTERVAL_MS);
+            Compression compression = features != null && features.contains(Feature.COMPRESS) ? new Compression() : null;
+            int port = listener.getLocalPort();
+            logger.info("New client on port {}", port);
+            if (features == null) {
+                stream.send(ServerMessage.hello(port));
+            } else {
+                // 支持全部扩展，原样接受
+                stream.send(ServerMessage.extendedHello(port, features));
+                stream.setBinary(features.contains(Feature.BINARY));
+            }
+
+            while (running) {
+                stream.send(ServerMessage.heartbeat());
+                Socket incoming;
+                try {
+                    incoming = listener.accept();
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+
+                UUID id = UUID.randomUUID();
+                if (compression != null) {
+                    compressed.put(id, compression);
+                }
+                pending.put(id, incoming);
+                scheduler.schedule(() -> {
+                    compressed.remove(id);
+                    Socket stale = pending.remove(id);
+                    if (stale != null) {
+                        logger.warn("Removed stale connection {}", id);
+                        closeQuietly(stale);
+                    }
+                }, STALE_CONNECTION_SECONDS, TimeUnit.SECONDS);
+                stream.send(ServerMessage.connection(id));
+            }
+        }
+    }
+
+    private void handleAccept(Delimited stream, UUID id) throws IOException {
+        Compression compression = compressed.remove(id);
+        Socket incoming = pending.remove(id);
+        if (incoming == null) {
+            logger.warn("Missing connection {}", id);
+            return;
+        }
+        try {
+            byte[] buffered = stream.detach();
+            if (compression != null) {
+                copyCompressed(incoming, stream.getSocket(), buffered, compression);
+                return;
+            }
+            if (buffered.length > 0) {
+                incoming.getOutputStream().write(buffered);
+            }
+            StreamUtils.copyBidirectional(stream.getSocket(), incoming, executor);
+        } finally {
+            closeQuietly(incoming);
+        }
+    }
+
+    /**
+     * 在入站连接和压缩的数据连接之间双向复制，buffered为已读入缓冲区的帧
+     */
+    private void copyCompressed(Socket incoming, Socket socket, byte[] buffered, Compression compression)
+            throws IOException {
+        InputStream decoder = compression.decoder(buffered, socket.getInputStream());
+        OutputStream encoder = compression.encoder(socket.getOutputStream());
+        try {
+            StreamUtils.copyBidirectional(incoming, socket, executor, SocketProfile.DEFAULT, null, null,
+                    decoder, encoder);
+        } finally {
+            closeQuietly(decoder);
+            closeQuietly(encoder);
+        }
+    }
+
+    /**
+     * 在多路复用连接上为每个OPEN帧接受对应的待处理连接，直到连接关闭
+     */
+    private void handleMultiplex(Delimited stream) throws IOException {
+        Socket socket = stream.getSocket();
+        // 客户端可能紧接着Multiplex消息发送OPEN帧，已读入缓冲区的部分需要先交给多路复用连接
+        byte[] buffered = stream.detach();
+        MuxConnection connection = new MuxConnection(socket,
+                new SequenceInputStream(new ByteArrayInputStream(buffered), socket.getInputStream()),
+                muxStream -> executor.submit(() -> acceptStream(muxStream)));
+        connection.run();
+    }
+
+    private void acceptStream(MuxStream stream) {
+        Socket incoming = pending.remove(stream.getId());
+        if (incoming == null) {
+            logger.warn("Missing connection {}", stream.getId());
+            stream.reset();
+            return;
+        }
+        try {
+            stream.splice(incoming, executor);
+        } catch (IOException e) {
+            logger.debug("Multiplexed stream exited with error: {}", e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        closeQuietly(control);
+        pending.values().forEach(StandInServer::closeQuietly);
+        pending.clear();
+        compressed.clear();
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,338 @@
+package com.bore.metrics;
+
+import com.bore.shared.ServerMessage;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * 一个隧道客户端的指标：连接数、流量、错误、控制消息、控制连接恢复、准入队列、数据压缩、本地服务实例以及握手和首字节延迟
+ */
+public class ClientMetrics {
+    /**
+     * 准入队列丢弃连接请求的原因
+     */
+    public enum ShedReason {
+        // 队列已满，拒绝新请求
+        QUEUE_FULL,
+        // 队列已满，丢弃最早的请求
+        DROPPED,
+        // 在队列中等待超时
+        TIMEOUT
+    }
+
+    private final LongAdder connections;
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder connectionErrors;
+    private final LongAdder connectionsRejected;
+    private final LongAdder connectionsIdleClosed;
+    private final LongAdder bytesSent;
+    private final LongAdder bytesReceived;
+    private final LongAdder[] controlMessages;
+    private final Histogram remoteHandshake;
+    private final Histogram timeToFirstByte;
+    private final Histogram connectionDuration;
+    private final LongAdder controlDisconnects;
+    private final LongAdder controlReconnects;
+    private final Histogram controlRecovery;
+    private final LongAdder admissionQueued = new LongAdder();
+    private final Histogram admissionWait;
+    private final LongAdder[] admissionShed;
+    private final LongAdder compressionSavedSent;
+    private final LongAdder compressionSavedReceived;
+    private final LongAdder compressionBypassed;
+    private final Histogram compressTime;
+    private final Histogram decompressTime;
+    // 用于注册本地服务实例的指标
+    private final MetricsRegistry registry;
+    private final String[] labels;
+
+    /**
+     * 在registry中注册本客户端的指标，labels用于区分同一进程中的多个隧道
+     */
+    public ClientMetrics(MetricsRegistry registry, String... labels) {
+        this.registry = registry;
+        this.labels = labels;
+        connections = registry.counter("bore_connections_total", "Tunneled connections requested by the server", labels);
+        registry.gauge("bore_connections_active", "Tunneled connections currently open", activeConnections::sum, labels);
+        connectionErrors = registry.counter("bore_connection_errors_total", "Tunneled connections that failed", labels);
+        connectionsRejected = registry.counter("bore_connections_rejected_total",
+                "Connection requests rejected by connection limits or load shedding", labels);
+        connectionsIdleClosed = registry.counter("bore_connections_idle_closed_total",
+                "Tunneled connections closed by the idle timeout", labels);
+        bytesSent = registry.counter("bore_bytes_sent_total", "Bytes forwarded from the local service to the server", labels);
+        bytesReceived = registry.counter("bore_bytes_received_total", "Bytes forwarded from the server to the local service", labels);
+
+        ServerMessage.MessageType[] types = ServerMessage.MessageType.values();
+        controlMessages = new LongAdder[types.length];
+        for (ServerMessage.MessageType type : types) {
+            controlMessages[type.ordinal()] = registry.counter("bore_control_messages_total",
+                    "Messages received on the control connection",
+                    withLabel(labels, "message", type.name().toLowerCase()));
+        }
+
+        remoteHandshake = registry.timer("bore_remote_handshake_seconds",
+                "Time to connect and authenticate a data connection to the server", labels);
+        timeToFirstByte = registry.timer("bore_time_to_first_byte_seconds",
+                "Time from a connection request until data can be forwarded", labels);
+        connectionDuration = registry.timer("bore_connection_duration_seconds",
+                "Lifetime of tunneled connections", labels);
+        controlDisconnects = registry.counter("bore_control_disconnects_total",
+                "Times the control connection was lost", labels);
+        controlReconnects = registry.counter("bore_control_reconnects_total",
+                "Reconnect attempts on the control connection, including failed ones", labels);
+        controlRecovery = registry.timer("bore_control_recovery_seconds",
+                "Time from losing the control connection until it was re-established", labels);
+
+        registry.gauge("bore_admission_queue_depth", "Connection requests waiting for a handler",
+                admissionQueued::sum, labels);
+        admissionWait = registry.timer("bore_admission_wait_seconds",
+                "Time connection requests spent in the admission queue", labels);
+        ShedReason[] reasons = ShedReason.values();
+        admissionShed = new LongAdder[reasons.length];
+        for (ShedReason reason : reasons) {
+            admissionShed[reason.ordinal()] = registry.counter("bore_admission_shed_total",
+                    "Connection requests shed by the admission queue",
+                    withLabel(labels, "reason", reason.name().toLowerCase()));
+        }
+
+        compressionSavedSent = registry.counter("bore_compression_saved_bytes_total",
+                "Bytes saved on the wire by compressing tunneled data", withLabel(labels, "direction", "sent"));
+        compressionSavedReceived = registry.counter("bore_compression_saved_bytes_total",
+                "Bytes saved on the wire by compressing tunneled data", withLabel(labels, "direction", "received"));
+        compressionBypassed = registry.counter("bore_compression_bypassed_bytes_total",
+                "Bytes sent uncompressed because they did not compress well", labels);
+        compressTime = registry.timer("bore_compression_seconds",
+                "CPU time spent compressing or decompressing a chunk of tunneled data",
+                withLabel(labels, "operation", "compress"));
+        decompressTime = registry.timer("bore_compression_seconds",
+                "CPU time spent compressing or decompressing a chunk of tunneled data",
+                withLabel(labels, "operation", "decompress"));
+    }
+
+    private static String[] withLabel(String[] labels, String name, String value) {
+        String[] extended = new String[labels.length + 2];
+        System.arraycopy(labels, 0, extended, 0, labels.length);
+        extended[labels.length] = name;
+        extended[labels.length + 1] = value;
+        return extended;
+    }
+
+    public void recordControlMessage(ServerMessage.MessageType type) {
+        controlMessages[type.ordinal()].increment();
+    }
+
+    public void recordRemoteHandshake(long nanos) {
+        remoteHandshake.record(nanos);
+    }
+
+    public void recordRejectedConnection() {
+        connectionsRejected.increment();
+    }
+
+    public void recordIdleClose() {
+        connectionsIdleClosed.increment();
+    }
+
+    /**
+     * 当前打开的隧道连接数
+     */
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    public void recordControlDisconnect() {
+        controlDisconnects.increment();
+    }
+
+    public void recordControlReconnect() {
+        controlReconnects.increment();
+    }
+
+    /**
+     * 控制连接恢复，nanos为从断开到重新完成Hello交换的时间
+     */
+    public void recordControlRecovery(long nanos) {
+        controlRecovery.record(nanos);
+    }
+
+    /**
+     * 准入队列中等待的请求数变化
+     */
+    public void admissionQueued(long delta) {
+        admissionQueued.add(delta);
+    }
+
+    public void recordAdmissionWait(long nanos) {
+        admissionWait.record(nanos);
+    }
+
+    public void recordAdmissionShed(ShedReason reason) {
+        admissionShed[reason.ordinal()].increment();
+    }
+
+    /**
+     * 压缩了一个发往服务器的数据块，rawBytes为原始大小，wireBytes为实际发送的负载大小
+     */
+    public void recordCompression(long rawBytes, long wireBytes, long nanos) {
+        compressTime.record(nanos);
+        if (rawBytes > wireBytes) {
+            compressionSavedSent.add(rawBytes - wireBytes);
+        }
+    }
+
+    /**
+     * 解压了一个从服务器收到的压缩帧
+     */
+    public void recordDecompression(long wireBytes, long rawBytes, long nanos) {
+        decompressTime.record(nanos);
+        if (rawBytes > wireBytes) {
+            compressionSavedReceived.add(rawBytes - wireBytes);
+        }
+    }
+
+    /**
+     * 因压缩率差而原样发送的字节数
+     */
+    public void recordCompressionBypass(long bytes) {
+        compressionBypassed.add(bytes);
+    }
+
+    public Histogram getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    /**
+     * 数据连接的建立耗时，包括TCP连接、TLS握手和认证
+     */
+    public Histogram getRemoteHandshake() {
+        return remoteHandshake;
+    }
+
+    /**
+     * 导出服务器当前分配的公开端口，重连后可能与remote_port标签不同
+     */
+    public void remotePort(LongSupplier port) {
+        registry.gauge("bore_remote_port", "Public port currently assigned by the server", port, labels);
+    }
+
+    /**
+     * 注册一个本地服务实例的指标，address为host:port，active和healthy在导出时取值
+     */
+    public Backend backend(String address, LongSupplier active, LongSupplier healthy) {
+        return new Backend(withLabel(labels, "backend", address), active, healthy);
+    }
+
+    /**
+     * 开始跟踪一个隧道连接
+     */
+    public Connection open() {
+        connections.increment();
+        activeConnections.increment();
+        return new Connection();
+    }
+
+    /**
+     * 单个隧道连接的流量和耗时，每个方向只由一个线程更新
+     */
+    public final class Connection {
+        private final long startNanos = System.nanoTime();
+        private final Direction sent = new Direction(bytesSent);
+        private final Direction received = new Direction(bytesReceived);
+        private boolean closed;
+
+        /**
+         * 从本地服务发往服务器的字节计数器
+         */
+        public LongConsumer sent() {
+            return sent;
+        }
+
+        /**
+         * 从服务器发往本地服务的字节计数器
+         */
+        public LongConsumer received() {
+            return received;
+        }
+
+        public long getBytesSent() {
+            return sent.bytes;
+        }
+
+        public long getBytesReceived() {
+            return received.bytes;
+        }
+
+        /**
+         * 连接已就绪，可以开始转发数据
+         */
+        public void ready() {
+            timeToFirstByte.record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * 连接结束，只有第一次调用生效
+         */
+        public synchronized void close(boolean failed) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            activeConnections.decrement();
+            if (failed) {
+                connectionErrors.increment();
+            }
+            connectionDuration.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * 负载均衡中的一个本地服务实例：连接耗时、拨号失败和被剔除的次数
+     */
+    public final class Backend {
+        private final Histogram connectTime;
+        private final LongAdder connectFailures;
+        private final LongAdder ejections;
+
+        private Backend(String[] backendLabels, LongSupplier active, LongSupplier healthy) {
+            registry.gauge("bore_backend_connections_active", "Tunneled connections open to a local backend",
+                    active, backendLabels);
+            registry.gauge("bore_backend_healthy", "Whether a local backend passes its health checks (1) or not (0)",
+                    healthy, backendLabels);
+            connectTime = registry.timer("bore_backend_connect_seconds", "Time to connect to a local backend",
+                    backendLabels);
+            connectFailures = registry.counter("bore_backend_connect_failures_total",
+                    "Failed connection attempts to a local backend", backendLabels);
+            ejections = registry.counter("bore_backend_ejections_total",
+                    "Times a local backend was taken out of rotation as an outlier", backendLabels);
+        }
+
+        public void recordConnect(long nanos) {
+            connectTime.record(nanos);
+        }
+
+        public void recordConnectFailure() {
+            connectFailures.increment();
+        }
+
+        public void recordEjection() {
+            ejections.increment();
+        }
+    }
+
+    private static final class Direction implements LongConsumer {
+        private final LongAdder total;
+        private volatile long bytes;
+
+        private Direction(LongAdder total) {
+            this.total = total;
+        }
+
+        @Override
+        public void accept(long value) {
+            bytes += value;
+            total.add(value);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.bore.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 计数器、仪表和直方图的注册表，可导出为Prometheus文本格式，也可注册为JMX MBean
+ *
+ * 指标在创建时注册一次，之后由调用方直接持有LongAdder或Histogram更新，数据路径上不查找注册表。
+ * 同名指标可以用不同的标签注册多次（例如每个隧道一组），导出时归为同一个指标族。
+ */
+public class MetricsRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private enum Type {
+        COUNTER,
+        GAUGE,
+        // 以纳秒记录，以秒导出
+        SUMMARY
+    }
+
+    // 指标族，按名称注册顺序导出
+    private final Map<String, Family> families = new LinkedHashMap<>();
+    private String jmxDomain;
+
+    /**
+     * 注册计数器，labels为成对的标签名和值；同名同标签的计数器已存在时返回已有的实例
+     */
+    public synchronized LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) register(name, help, Type.COUNTER, labels, new LongAdder(), false);
+    }
+
+    /**
+     * 注册仪表，导出时调用supplier取值；同名同标签的仪表已存在时替换其取值函数
+     */
+    public synchronized void gauge(String name, String help, LongSupplier supplier, String... labels) {
+        register(name, help, Type.GAUGE, labels, supplier, true);
+    }
+
+    /**
+     * 注册记录纳秒耗时的直方图，以秒为单位导出分位数；同名同标签的直方图已存在时返回已有的实例
+     */
+    public synchronized Histogram timer(String name, String help, String... labels) {
+        return (Histogram) register(name, help, Type.SUMMARY, labels, new Histogram(), false);
+    }
+
+    private Object register(String name, String help, Type type, String[] labels, Object metric, boolean replace) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(name, help, type);
+            families.put(name, family);
+        } else if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " already registered as " + family.type);
+        }
+        String key = formatLabels(labels);
+        Object existing = family.series.get(key);
+        if (existing != null && !replace) {
+            return existing;
+        }
+        family.series.put(key, metric);
+        if (jmxDomain != null) {
+            registerMBean(labels);
+        }
+        return metric;
+    }
+
+    private static String formatLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 以Prometheus文本格式导出所有指标
+     */
+    public synchronized String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+            for (Map.Entry<String, Object> entry : family.series.entrySet()) {
+                String labels = entry.getKey();
+                Object metric = entry.getValue();
+                switch (family.type) {
+                    case COUNTER:
+                        sample(out, family.name, labels, ((LongAdder) metric).sum());
+                        break;
+                    case GAUGE:
+                        sample(out, family.name, labels, ((LongSupplier) metric).getAsLong());
+                        break;
+                    case SUMMARY:
+                        Histogram histogram = (Histogram) metric;
+                        for (double quantile : QUANTILES) {
+                            String withQuantile = (labels.isEmpty() ? "" : labels + ",") + "quantile=\"" + quantile + "\"";
+                            sample(out, family.name, withQuantile, histogram.getValueAtQuantile(quantile) / 1e9);
+                        }
+                        sample(out, family.name + "_sum", labels, histogram.getSum() / 1e9);
+                        sample(out, family.name + "_count", labels, histogram.getCount());
+                        break;
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, Object value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * 将指标注册为平台MBeanServer中的MBean，每组标签一个，之后注册的指标也会导出
+     */
+    public synchronized void registerJmx(String domain) {
+        jmxDomain = domain;
+        List<String[]> labelSets = new ArrayList<>();
+        for (Family family : families.values()) {
+            for (String key : family.series.keySet()) {
+                labelSets.add(parseLabels(key));
+            }
+        }
+        for (String[] labels : labelSets) {
+            registerMBean(labels);
+        }
+    }
+
+    private void registerMBean(String[] labels) {
+        StringBuilder name = new StringBuilder(jmxDomain).append(":type=Metrics");
+        for (int i = 0; i < labels.length; i += 2) {
+            name.append(',').append(labels[i]).append('=').append(ObjectName.quote(labels[i + 1]));
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name.toString());
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new MetricsMBean(formatLabels(labels)), objectName);
+            }
+        } catch (JMException e) {
+            logger.warn("Failed to register metrics MBean {}: {}", name, e.getMessage());
+        }
+    }
+
+    private static String[] parseLabels(String key) {
+        if (key.isEmpty()) {
+            return new String[0];
+        }
+        List<String> labels = new ArrayList<>();
+        for (String pair : key.split(",(?=[a-zA-Z_]+=\")")) {
+            int eq = pair.indexOf('=');
+            labels.add(pair.substring(0, eq));
+            labels.add(pair.substring(eq + 2, pair.length() - 1).replace("\\\"", "\"").replace("\\\\", "\\"));
+        }
+        return labels.toArray(new String[0]);
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+        // 标签 -> LongAdder、LongSupplier或Histogram
+        private final Map<String, Object> series = new LinkedHashMap<>();
+
+        private Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * 一组标签下的所有指标，直方图导出为计数和以毫秒为单位的分位数
+     */
+    private final class MetricsMBean implements DynamicMBean {
+        private final String labels;
+
+        private MetricsMBean(String labels) {
+            this.labels = labels;
+        }
+
+        private Map<String, Object> values() {
+            Map<String, Object> values = new LinkedHashMap<>();
+            synchronized (MetricsRegistry.this) {
+                for (Family family : families.values()) {
+                    Object metric = family.series.get(labels);
+                    if (metric instanceof LongAdder) {
+                        values.put(family.name, ((LongAdder) metric).sum());
+                    } else if (metric instanceof LongSupplier) {
+                        values.put(family.name, ((LongSupplier) metric).getAsLong());
+                    } else if (metric instanceof Histogram) {
+                        Histogram histogram = (Histogram) metric;
+                        values.put(family.name + "_count", histogram.getCount());
+                        values.put(family.name + "_p50_ms", histogram.getValueAtQuantile(0.5) / 1e6);
+                        values.put(family.name + "_p99_ms", histogram.getValueAtQuantile(0.99) / 1e6);
+                        values.put(family.name + "_p999_ms", histogram.getValueAtQuantile(0.999) / 1e6);
+                        values.put(family.name + "_max_ms", histogram.getMax() / 1e6);
+                    }
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) {
+            return values().get(attribute);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : values().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                        entry.getKey(), true, false, false));
+            }
+            return new MBeanInfo(MetricsMBean.class.getName(), "bore metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
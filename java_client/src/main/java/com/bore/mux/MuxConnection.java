@@ -0,0 +1,191 @@
+package com.bore.mux;
+
+import com.bore.util.BufferPool;
+import com.bore.util.CoalescingWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * 在一个已认证的TCP连接上承载多个以连接UUID标识的逻辑流
+ *
+ * 客户端通过open发起流；服务端在收到OPEN帧时通过acceptor回调获得新流，回调不得阻塞。
+ */
+public class MuxConnection implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(MuxConnection.class);
+
+    // 写缓冲区可容纳多个完整的DATA帧，多个流同时写入时合并为一次系统调用
+    private static final int WRITE_BUFFER_SIZE = 4 * (MuxFrame.HEADER_LENGTH + MuxFrame.MAX_DATA_LENGTH);
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final CoalescingWriter output;
+    private final Consumer<MuxStream> acceptor;
+    private final ConcurrentMap<UUID, MuxStream> streams = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * @param input    连接的输入流，可包含握手阶段已缓冲的数据
+     * @param acceptor 服务端处理新流的回调，客户端为null
+     */
+    public MuxConnection(Socket socket, InputStream input, Consumer<MuxStream> acceptor) throws IOException {
+        this.socket = socket;
+        this.input = new DataInputStream(new BufferedInputStream(input));
+        this.output = new CoalescingWriter(socket.getOutputStream(), WRITE_BUFFER_SIZE,
+                CoalescingWriter.DEFAULT_MAX_DELAY_NANOS);
+        this.acceptor = acceptor;
+    }
+
+    /**
+     * 打开一个新流，对应服务器Connection消息中的UUID
+     */
+    public MuxStream open(UUID id) throws IOException {
+        MuxStream stream = new MuxStream(id, this);
+        streams.put(id, stream);
+        try {
+            writeFrame(MuxFrame.OPEN, id, null, 0, 0);
+        } catch (IOException e) {
+            streams.remove(id);
+            throw e;
+        }
+        return stream;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 当前活跃的流数量
+     */
+    public int getStreamCount() {
+        return streams.size();
+    }
+
+    /**
+     * 读取并分发帧，直到连接关闭
+     */
+    public void run() {
+        try {
+            while (!closed) {
+                byte type = input.readByte();
+                UUID id = new UUID(input.readLong(), input.readLong());
+                int length = input.readInt();
+                if (length < 0 || length > MuxFrame.MAX_DATA_LENGTH) {
+                    throw new IOException("Invalid mux frame length " + length);
+                }
+                dispatch(type, id, length);
+            }
+        } catch (EOFException e) {
+            logger.debug("Mux connection closed by peer");
+        } catch (IOException e) {
+            if (!closed) {
+                logger.warn("Mux connection failed: {}", e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void dispatch(byte type, UUID id, int length) throws IOException {
+        MuxStream stream = streams.get(id);
+        switch (type) {
+            case MuxFrame.OPEN:
+                if (acceptor == null || stream != null) {
+                    throw new IOException("Unexpected OPEN for stream " + id);
+                }
+                stream = new MuxStream(id, this);
+                streams.put(id, stream);
+                acceptor.accept(stream);
+                break;
+            case MuxFrame.DATA:
+                ByteBuffer payload = BufferPool.heap().acquire(length);
+                input.readFully(payload.array(), 0, length);
+                payload.limit(length);
+                if (stream == null) {
+                    // 流可能已被本地中止
+                    BufferPool.heap().release(payload);
+                    break;
+                }
+                stream.onData(payload);
+                break;
+            case MuxFrame.WINDOW:
+                int increment = input.readInt();
+                if (stream != null) {
+                    stream.onWindow(increment);
+                }
+                break;
+            case MuxFrame.FIN:
+                if (stream != null) {
+                    stream.onFinish();
+                }
+                break;
+            case MuxFrame.RST:
+                if (stream != null) {
+                    stream.markReset();
+                    streams.remove(id);
+                }
+                break;
+            default:
+                throw new IOException("Unknown mux frame type " + type);
+        }
+    }
+
+    void writeFrame(byte type, UUID id, byte[] data, int offset, int length) throws IOException {
+        output.write(out -> {
+            writeHeader(out, type, id, length);
+            if (length > 0) {
+                out.write(data, offset, length);
+            }
+        });
+    }
+
+    void writeWindow(UUID id, int increment) throws IOException {
+        output.write(out -> {
+            writeHeader(out, MuxFrame.WINDOW, id, 4);
+            out.writeInt(increment);
+        });
+    }
+
+    private static void writeHeader(DataOutputStream out, byte type, UUID id, int length) throws IOException {
+        out.writeByte(type);
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+        out.writeInt(length);
+    }
+
+    void remove(MuxStream stream) {
+        streams.remove(stream.getId(), stream);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        logger.debug("{}", output);
+        for (MuxStream stream : streams.values()) {
+            stream.markReset();
+        }
+        streams.clear();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
+        }
+    }
+}
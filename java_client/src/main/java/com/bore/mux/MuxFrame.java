@@ -0,0 +1,29 @@
+package com.bore.mux;
+
+/**
+ * 多路复用连接上的帧格式
+ *
+ * 每帧为：类型(1字节) + 流ID(16字节UUID) + 负载长度(4字节) + 负载
+ */
+final class MuxFrame {
+    // 客户端接受一个待处理的连接，流ID即服务器Connection消息中的UUID
+    static final byte OPEN = 1;
+    // 流数据
+    static final byte DATA = 2;
+    // 增加对端的发送窗口，负载为4字节的增量
+    static final byte WINDOW = 3;
+    // 发送方不再写入数据（半关闭）
+    static final byte FIN = 4;
+    // 中止流
+    static final byte RST = 5;
+
+    static final int HEADER_LENGTH = 1 + 16 + 4;
+
+    // 单个DATA帧的最大负载，保证多个流在同一连接上交替发送
+    static final int MAX_DATA_LENGTH = 16 * 1024;
+
+    // 每个流的初始窗口，也是接收方为每个流缓存的最大字节数
+    static final int INITIAL_WINDOW = 256 * 1024;
+
+    private MuxFrame() {}
+}
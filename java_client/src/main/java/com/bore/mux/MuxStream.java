@@ -0,0 +1,234 @@
+package com.bore.mux;
+
+import com.bore.util.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+/**
+ * 多路复用连接上的一个逻辑流，带有独立的流量控制窗口
+ *
+ * 发送方最多发送对端授予的窗口大小的数据；接收方把数据交给本地连接后才归还窗口，
+ * 因此一个慢速的本地服务只会阻塞自己的流，不会阻塞同一连接上的其他流。
+ */
+public class MuxStream {
+    private final UUID id;
+    private final MuxConnection connection;
+
+    // 以下字段由this保护
+    private int sendWindow = MuxFrame.INITIAL_WINDOW;
+    private final ArrayDeque<ByteBuffer> inbound = new ArrayDeque<>();
+    private int inboundBytes;
+    private int consumedSinceUpdate;
+    private boolean remoteFinished;
+    private boolean reset;
+
+    MuxStream(UUID id, MuxConnection connection) {
+        this.id = id;
+        this.connection = connection;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    /**
+     * 写入数据，窗口耗尽时阻塞直到对端归还窗口
+     */
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n;
+            synchronized (this) {
+                while (sendWindow == 0 && !reset) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for send window", e);
+                    }
+                }
+                if (reset) {
+                    throw new IOException("Stream reset");
+                }
+                n = Math.min(Math.min(length, sendWindow), MuxFrame.MAX_DATA_LENGTH);
+                sendWindow -= n;
+            }
+            connection.writeFrame(MuxFrame.DATA, id, data, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * 读取数据，没有数据时阻塞；对端半关闭后返回-1
+     */
+    public int read(byte[] dst, int offset, int length) throws IOException {
+        int n = 0;
+        int update = 0;
+        synchronized (this) {
+            while (inbound.isEmpty() && !remoteFinished && !reset) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for data", e);
+                }
+            }
+            if (reset) {
+                throw new IOException("Stream reset");
+            }
+            while (n < length && !inbound.isEmpty()) {
+                ByteBuffer head = inbound.peekFirst();
+                int chunk = Math.min(length - n, head.remaining());
+                head.get(dst, offset + n, chunk);
+                n += chunk;
+                if (!head.hasRemaining()) {
+                    inbound.pollFirst();
+                    BufferPool.heap().release(head);
+                }
+            }
+            if (n == 0) {
+                return -1;
+            }
+            inboundBytes -= n;
+            // 累计到半个窗口再归还，减少WINDOW帧数量
+            consumedSinceUpdate += n;
+            if (consumedSinceUpdate >= MuxFrame.INITIAL_WINDOW / 2 || inbound.isEmpty()) {
+                update = consumedSinceUpdate;
+                consumedSinceUpdate = 0;
+            }
+        }
+        if (update > 0) {
+            connection.writeWindow(id, update);
+        }
+        return n;
+    }
+
+    /**
+     * 通知对端不会再写入数据
+     */
+    public void finish() throws IOException {
+        connection.writeFrame(MuxFrame.FIN, id, null, 0, 0);
+    }
+
+    /**
+     * 中止流并通知对端
+     */
+    public void reset() {
+        if (markReset()) {
+            try {
+                connection.writeFrame(MuxFrame.RST, id, null, 0, 0);
+            } catch (IOException e) {
+                // 连接可能已关闭，这是预期的
+            }
+        }
+        connection.remove(this);
+    }
+
+    synchronized void onData(ByteBuffer payload) throws IOException {
+        if (inboundBytes + payload.remaining() > MuxFrame.INITIAL_WINDOW) {
+            BufferPool.heap().release(payload);
+            throw new IOException("Peer exceeded flow control window on stream " + id);
+        }
+        inboundBytes += payload.remaining();
+        inbound.addLast(payload);
+        notifyAll();
+    }
+
+    synchronized void onWindow(int increment) {
+        sendWindow += increment;
+        notifyAll();
+    }
+
+    synchronized void onFinish() {
+        remoteFinished = true;
+        notifyAll();
+    }
+
+    /**
+     * 标记为已中止，返回本次调用是否改变了状态
+     */
+    synchronized boolean markReset() {
+        if (reset) {
+            return false;
+        }
+        reset = true;
+        ByteBuffer buffer;
+        while ((buffer = inbound.pollFirst()) != null) {
+            BufferPool.heap().release(buffer);
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * 在本流和本地Socket之间双向复制数据，一个方向在给定执行器中运行，另一个方向在当前线程中运行
+     */
+    public void splice(Socket socket, ExecutorService executor) throws IOException {
+        splice(socket, executor, null, null);
+    }
+
+    /**
+     * 双向复制数据，将从Socket发出和写入Socket的字节数分别报告给计数器（可为null）
+     */
+    public void splice(Socket socket, ExecutorService executor, LongConsumer sentBytes, LongConsumer receivedBytes)
+            throws IOException {
+        // 从Socket到流
+        Future<?> upstream = executor.submit(() -> {
+            byte[] buffer = new byte[MuxFrame.MAX_DATA_LENGTH];
+            try {
+                InputStream input = socket.getInputStream();
+                int n;
+                while ((n = input.read(buffer)) != -1) {
+                    write(buffer, 0, n);
+                    if (sentBytes != null) {
+                        sentBytes.accept(n);
+                    }
+                }
+                finish();
+            } catch (IOException e) {
+                reset();
+            }
+        });
+
+        // 从流到Socket
+        byte[] buffer = new byte[MuxFrame.MAX_DATA_LENGTH];
+        try {
+            OutputStream output = socket.getOutputStream();
+            int n;
+            while ((n = read(buffer, 0, buffer.length)) != -1) {
+                output.write(buffer, 0, n);
+                if (receivedBytes != null) {
+                    receivedBytes.accept(n);
+                }
+            }
+            socket.shutdownOutput();
+        } catch (IOException e) {
+            reset();
+            // 关闭Socket使另一个方向的阻塞读取结束
+            socket.close();
+        }
+
+        // 等待另一个方向完成，连接闲置时由调用方的空闲超时关闭Socket结束等待
+        try {
+            upstream.get();
+        } catch (InterruptedException e) {
+            socket.close();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // 复制任务自行处理IO错误
+        } finally {
+            connection.remove(this);
+            socket.close();
+        }
+    }
+}
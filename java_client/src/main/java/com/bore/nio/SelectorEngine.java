@@ -0,0 +1,77 @@
+package com.bore.nio;
+
+import com.bore.util.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * 基于Selector的非阻塞转发引擎，所有隧道连接共享固定数量的事件循环
+ */
+public class SelectorEngine implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SelectorEngine.class);
+
+    private final SelectorLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * 创建指定数量事件循环的引擎，小于等于0时按CPU核数创建
+     */
+    public SelectorEngine(int threads) throws IOException {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        loops = new SelectorLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new SelectorLoop("bore-nio-" + i);
+            loops[i].start();
+        }
+        logger.debug("Started NIO engine with {} selector loops", threads);
+    }
+
+    /**
+     * 在两个通道之间双向转发数据，立即返回；两个方向都结束后关闭通道并回调onClose
+     *
+     * 返回的句柄可从任意线程关闭，用于中止转发（例如空闲超时），同样会回调onClose
+     */
+    public Closeable forward(SocketChannel local, SocketChannel remote, Runnable onClose) throws IOException {
+        return forward(local, remote, onClose, null, null);
+    }
+
+    /**
+     * 双向转发数据，每次写出后在事件循环线程中将字节数报告给对应方向的计数器（可为null）
+     */
+    public Closeable forward(SocketChannel local, SocketChannel remote, Runnable onClose,
+                             LongConsumer upstreamBytes, LongConsumer downstreamBytes) throws IOException {
+        return forward(local, remote, onClose, upstreamBytes, downstreamBytes, null, null);
+    }
+
+    /**
+     * 双向转发数据，并按限速器（可为null）限制每个方向的速率；超出时暂停读取该方向，不占用事件循环
+     */
+    public Closeable forward(SocketChannel local, SocketChannel remote, Runnable onClose,
+                             LongConsumer upstreamBytes, LongConsumer downstreamBytes,
+                             RateLimiter upstreamLimit, RateLimiter downstreamLimit) throws IOException {
+        local.configureBlocking(false);
+        remote.configureBlocking(false);
+        int index = (next.getAndIncrement() & Integer.MAX_VALUE) % loops.length;
+        SelectorLoop loop = loops[index];
+        Tunnel tunnel = new Tunnel(local, remote, onClose, upstreamBytes, downstreamBytes,
+                upstreamLimit, downstreamLimit);
+        loop.register(tunnel);
+        // 隧道只能在循环线程中关闭，否则通道的注册被取消而onClose不会执行
+        return () -> loop.execute(tunnel::close);
+    }
+
+    @Override
+    public void close() {
+        for (SelectorLoop loop : loops) {
+            loop.close();
+        }
+    }
+}
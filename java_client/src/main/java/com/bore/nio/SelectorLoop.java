@@ -0,0 +1,159 @@
+package com.bore.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单线程事件循环，负责一个Selector上所有隧道的读写
+ */
+final class SelectorLoop implements Runnable, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SelectorLoop.class);
+
+    private final Selector selector;
+    private final Queue<Tunnel> pending = new ConcurrentLinkedQueue<>();
+    // 其他线程提交、在循环线程中执行的任务（例如中止隧道）
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // 定时任务（例如限速结束后恢复读取），只在循环线程中访问
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private long timerSequence;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    SelectorLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * 将隧道交给本循环，注册在循环线程中完成
+     */
+    void register(Tunnel tunnel) {
+        pending.add(tunnel);
+        selector.wakeup();
+    }
+
+    /**
+     * 在循环线程中执行task，可以从任意线程调用
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    /**
+     * 在deadlineNanos之后于循环线程中执行task，只能在循环线程中调用
+     */
+    void schedule(long deadlineNanos, Runnable task) {
+        timers.add(new Timer(deadlineNanos, timerSequence++, task));
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Timer first = timers.peek();
+                if (first == null) {
+                    selector.select();
+                } else {
+                    long waitNanos = first.deadlineNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        // select的超时精度为毫秒，向上取整避免空转
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos + 999_999)));
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Selector failed: {}", e.getMessage());
+                break;
+            }
+
+            Tunnel tunnel;
+            while ((tunnel = pending.poll()) != null) {
+                tunnel.register(this);
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                Tunnel.Endpoint endpoint = (Tunnel.Endpoint) key.attachment();
+                endpoint.tunnel().handle(endpoint, key);
+            }
+
+            long now = System.nanoTime();
+            Timer timer;
+            while ((timer = timers.peek()) != null && timer.deadlineNanos - now <= 0) {
+                timers.poll();
+                timer.task.run();
+            }
+        }
+        timers.clear();
+        tasks.clear();
+
+        // 退出时关闭所有仍在转发的隧道
+        for (SelectionKey key : selector.keys()) {
+            ((Tunnel.Endpoint) key.attachment()).tunnel().close();
+        }
+        Tunnel tunnel;
+        while ((tunnel = pending.poll()) != null) {
+            tunnel.close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        private final long deadlineNanos;
+        // 相同截止时间按加入顺序执行
+        private final long sequence;
+        private final Runnable task;
+
+        private Timer(long deadlineNanos, long sequence, Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            long diff = deadlineNanos - other.deadlineNanos;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
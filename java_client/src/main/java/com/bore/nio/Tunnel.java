@@ -0,0 +1,233 @@
+package com.bore.nio;
+
+import com.bore.util.BufferPool;
+import com.bore.util.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.function.LongConsumer;
+
+/**
+ * 一对相互转发的非阻塞通道，只在所属的事件循环线程中访问
+ */
+final class Tunnel {
+    private static final Logger logger = LoggerFactory.getLogger(Tunnel.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Endpoint local;
+    private final Endpoint remote;
+    private final Runnable onClose;
+    private SelectorLoop loop;
+    private boolean closed;
+
+    Tunnel(SocketChannel localChannel, SocketChannel remoteChannel, Runnable onClose,
+           LongConsumer upstreamBytes, LongConsumer downstreamBytes,
+           RateLimiter upstreamLimit, RateLimiter downstreamLimit) {
+        this.local = new Endpoint(localChannel);
+        this.remote = new Endpoint(remoteChannel);
+        this.onClose = onClose;
+
+        Flow upstream = new Flow(local, remote, upstreamBytes, upstreamLimit);
+        Flow downstream = new Flow(remote, local, downstreamBytes, downstreamLimit);
+        local.inbound = upstream;
+        local.outbound = downstream;
+        remote.inbound = downstream;
+        remote.outbound = upstream;
+    }
+
+    void register(SelectorLoop loop) {
+        this.loop = loop;
+        Selector selector = loop.selector();
+        try {
+            local.key = local.channel.register(selector, SelectionKey.OP_READ, local);
+            remote.key = remote.channel.register(selector, SelectionKey.OP_READ, remote);
+        } catch (IOException e) {
+            logger.debug("Failed to register tunnel: {}", e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * 处理某一端的就绪事件，并根据缓冲区状态切换两端的关注事件实现背压
+     */
+    void handle(Endpoint endpoint, SelectionKey key) {
+        if (closed || !key.isValid()) {
+            return;
+        }
+        try {
+            if (key.isWritable()) {
+                endpoint.outbound.write();
+            }
+            if (key.isReadable()) {
+                endpoint.inbound.read();
+            }
+
+            if (local.inbound.done && remote.inbound.done) {
+                close();
+                return;
+            }
+            local.updateInterest();
+            remote.updateInterest();
+        } catch (IOException e) {
+            // 连接可能已关闭，这是预期的
+            close();
+        }
+    }
+
+    /**
+     * 限速等待结束后恢复读取
+     */
+    private void resume(Flow flow) {
+        flow.pausedUntilNanos = 0;
+        if (closed) {
+            return;
+        }
+        local.updateInterest();
+        remote.updateInterest();
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeQuietly(local.channel);
+        closeQuietly(remote.channel);
+        local.inbound.release();
+        remote.inbound.release();
+        if (onClose != null) {
+            try {
+                onClose.run();
+            } catch (RuntimeException e) {
+                logger.warn("Tunnel close callback failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
+        }
+    }
+
+    /**
+     * 隧道的一端
+     */
+    final class Endpoint {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        // 从本端读取的数据流
+        private Flow inbound;
+        // 写入本端的数据流
+        private Flow outbound;
+
+        private Endpoint(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        Tunnel tunnel() {
+            return Tunnel.this;
+        }
+
+        private void updateInterest() {
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            if (inbound.wantsRead()) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (outbound.wantsWrite()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+    }
+
+    /**
+     * 单方向的数据流，缓冲区始终处于写入模式
+     *
+     * 缓冲区只在有数据待转发时从池中借出，写空后立即归还，空闲的连接不占用缓冲区
+     */
+    private static final class Flow {
+        private final Endpoint source;
+        private final Endpoint target;
+        private final LongConsumer counter;
+        private final RateLimiter limit;
+        private ByteBuffer buffer;
+        private boolean eof;
+        private boolean done;
+        // 超出限速时暂停读取直到该时刻，0表示未暂停
+        private long pausedUntilNanos;
+
+        private Flow(Endpoint source, Endpoint target, LongConsumer counter, RateLimiter limit) {
+            this.source = source;
+            this.target = target;
+            this.counter = counter;
+            this.limit = limit;
+        }
+
+        private void read() throws IOException {
+            if (buffer == null) {
+                buffer = BufferPool.direct().acquire(BUFFER_SIZE);
+            }
+            int n = source.channel.read(buffer);
+            if (n < 0) {
+                eof = true;
+            } else if (n > 0 && limit != null) {
+                // 不能在事件循环中休眠：先转发已读到的数据，再停止读取直到令牌足够
+                long delay = limit.reserve(n);
+                if (delay > 0) {
+                    pausedUntilNanos = System.nanoTime() + delay;
+                    Tunnel tunnel = source.tunnel();
+                    tunnel.loop.schedule(pausedUntilNanos, () -> tunnel.resume(this));
+                }
+            }
+            write();
+        }
+
+        private void write() throws IOException {
+            if (buffer != null && buffer.position() > 0) {
+                buffer.flip();
+                int written = target.channel.write(buffer);
+                buffer.compact();
+                if (counter != null && written > 0) {
+                    counter.accept(written);
+                }
+            }
+            if (buffer != null && buffer.position() == 0) {
+                release();
+            }
+            // 源端已结束且数据已全部写出时半关闭目标端
+            if (eof && buffer == null && !done) {
+                target.channel.shutdownOutput();
+                done = true;
+            }
+        }
+
+        private void release() {
+            if (buffer != null) {
+                BufferPool.direct().release(buffer);
+                buffer = null;
+            }
+        }
+
+        private boolean wantsRead() {
+            return !eof && pausedUntilNanos == 0 && (buffer == null || buffer.hasRemaining());
+        }
+
+        private boolean wantsWrite() {
+            return buffer != null && buffer.position() > 0;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.bore.server;
+
+import com.bore.shared.Constants;
+import com.bore.shared.Delimited;
+import com.bore.shared.ServerMessage;
+import com.bore.util.TimerWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个客户端的控制会话：公共端口上的连接由接受线程登记后发送Connection消息，心跳由时间轮触发
+ *
+ * 会话不占用线程。消息先放入发送队列，由共享的有界写线程池依次写出，不读取的客户端不会阻塞接受线程或时间轮；
+ * 一次写入阻塞超过NETWORK_TIMEOUT_MS、队列积压超过上限或写入失败时认为客户端已断开，关闭会话和公共端口，
+ * 因此一个不读取的客户端最多占用一个写线程NETWORK_TIMEOUT_MS加一个心跳间隔。
+ */
+final class ControlSession {
+    private static final Logger logger = LoggerFactory.getLogger(ControlSession.class);
+
+    // 发送心跳的间隔，与Rust服务器一致
+    private static final long HEARTBEAT_INTERVAL_MS = 500;
+
+    // 发送队列中最多积压的消息数
+    private static final int MAX_QUEUED_MESSAGES = 4096;
+
+    private final Server server;
+    private final Delimited stream;
+    private final ServerSocketChannel listener;
+    private final int port;
+    private final Queue<ServerMessage> outbox = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    // 当前写入开始的时间，没有在写时为0
+    private volatile long writingSinceNanos;
+    private volatile TimerWheel.Timeout heartbeat;
+
+    ControlSession(Server server, Delimited stream, ServerSocketChannel listener, int port) {
+        this.server = server;
+        this.stream = stream;
+        this.listener = listener;
+        this.port = port;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    void start() {
+        server.register(this, listener);
+        scheduleHeartbeat();
+    }
+
+    private void scheduleHeartbeat() {
+        heartbeat = server.wheel().schedule(TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_INTERVAL_MS), () -> {
+            if (closed.get()) {
+                return;
+            }
+            long since = writingSinceNanos;
+            if (since != 0 && System.nanoTime() - since > TimeUnit.MILLISECONDS.toNanos(Constants.NETWORK_TIMEOUT_MS)) {
+                logger.warn("Client on port {} is not reading control messages, closing", port);
+                close();
+                return;
+            }
+            send(ServerMessage.heartbeat());
+            scheduleHeartbeat();
+        });
+    }
+
+    /**
+     * 在接受线程中接受公共端口上所有已到达的连接
+     */
+    void acceptPublic() {
+        SocketChannel channel;
+        while (!closed.get() && (channel = Server.accept(listener)) != null) {
+            UUID id = server.addPending(channel);
+            logger.info("New connection {} on port {}", id, port);
+            send(ServerMessage.connection(id));
+        }
+    }
+
+    private void send(ServerMessage message) {
+        if (closed.get()) {
+            return;
+        }
+        if (queued.incrementAndGet() > MAX_QUEUED_MESSAGES) {
+            logger.warn("Client on port {} is not reading control messages, closing", port);
+            close();
+            return;
+        }
+        outbox.add(message);
+        if (draining.compareAndSet(false, true)) {
+            try {
+                server.writers().execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // 服务器已关闭
+                close();
+            }
+        }
+    }
+
+    /**
+     * 写出队列中的消息，同一时刻只有一个线程在写
+     */
+    private void drain() {
+        try {
+            do {
+                ServerMessage message;
+                while ((message = outbox.poll()) != null) {
+                    queued.decrementAndGet();
+                    writingSinceNanos = System.nanoTime();
+                    stream.send(message);
+                    writingSinceNanos = 0;
+                }
+                draining.set(false);
+                // 放弃写权限后可能有新消息入队，而入队方看到的仍是写入中的状态
+            } while (!outbox.isEmpty() && draining.compareAndSet(false, true));
+        } catch (IOException e) {
+            // 假定TCP连接已断开
+            logger.debug("Control connection on port {} failed: {}", port, e.getMessage());
+            close();
+        }
+    }
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        TimerWheel.Timeout current = heartbeat;
+        if (current != null) {
+            current.cancel();
+        }
+        server.unregister(this, listener);
+        // 先关闭Socket，使阻塞中的写入立即失败并释放写线程
+        Server.closeQuietly(stream.getSocket());
+        Server.closeQuietly(stream);
+        outbox.clear();
+        logger.info("Client on port {} disconnected", port);
+    }
+}
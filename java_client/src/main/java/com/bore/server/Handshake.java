@@ -0,0 +1,180 @@
+package com.bore.server;
+
+import com.bore.auth.Authenticator;
+import com.bore.shared.ClientMessage;
+import com.bore.shared.Constants;
+import com.bore.shared.Delimited;
+import com.bore.shared.ServerMessage;
+import com.bore.util.TimerWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 新连接的握手：在接受线程上非阻塞地完成认证并读取首条消息
+ *
+ * 握手期间连接不占用线程，只占用一个能容纳最大帧的缓冲区；认证和首条消息共用一个截止时间，
+ * 不发送数据的连接在NETWORK_TIMEOUT_MS后被关闭，而不是每次读取重新计时。
+ */
+final class Handshake {
+    private static final Logger logger = LoggerFactory.getLogger(Handshake.class);
+
+    // 认证应答和首条消息都是一帧，缓冲区可容纳一个最大的JSON帧或二进制帧
+    private static final int BUFFER_SIZE = Constants.MAX_FRAME_LENGTH + 16;
+
+    private final Server server;
+    private final SocketChannel channel;
+    private final Authenticator auth;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile TimerWheel.Timeout deadline;
+
+    // 以下字段只在接受线程中访问
+    private SelectionKey key;
+    // 等待认证应答时为发出的挑战，认证完成或不需要认证时为null
+    private UUID challenge;
+
+    Handshake(Server server, SocketChannel channel, Authenticator auth) {
+        this.server = server;
+        this.channel = channel;
+        this.auth = auth;
+    }
+
+    /**
+     * 在接受线程中开始握手：需要认证时先发送挑战，然后等待客户端的帧
+     */
+    void start(Selector selector, TimerWheel wheel) {
+        deadline = wheel.schedule(TimeUnit.MILLISECONDS.toNanos(Constants.NETWORK_TIMEOUT_MS), this::expire);
+        try {
+            channel.configureBlocking(false);
+            if (auth != null) {
+                challenge = UUID.randomUUID();
+                write(ServerMessage.challenge(challenge));
+            }
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            logger.warn("Connection exited with error: {}", e.getMessage());
+            abort();
+        }
+    }
+
+    /**
+     * 在接受线程中读取已到达的数据，收到首条消息后交给服务器处理
+     */
+    void read() {
+        if (finished.get()) {
+            return;
+        }
+        try {
+            if (channel.read(buffer) == -1) {
+                abort();
+                return;
+            }
+            byte[] buf = buffer.array();
+            int pos = 0;
+            int end;
+            while ((end = Delimited.frameEnd(buf, pos, buffer.position())) >= 0) {
+                ClientMessage message = Delimited.decodeFrame(ClientMessage.class, buf, pos, end);
+                pos = end;
+                if (challenge != null) {
+                    if (!authenticate(message)) {
+                        return;
+                    }
+                    continue;
+                }
+                if (message == null || !finish()) {
+                    abort();
+                    return;
+                }
+                // 数据连接上客户端可能紧接着Accept发送了数据，已读入的部分随消息一起交出
+                byte[] buffered = Arrays.copyOfRange(buf, pos, buffer.position());
+                key.cancel();
+                server.completeHandshake(channel, message, buffered);
+                return;
+            }
+            buffer.flip();
+            buffer.position(pos);
+            buffer.compact();
+        } catch (IOException | RuntimeException e) {
+            // 截止时间到达时连接在时间轮线程中被关闭，读取随之失败，不需要记录
+            if (!finished.get()) {
+                logger.warn("Connection exited with error: {}", e.getMessage());
+            }
+            abort();
+        }
+    }
+
+    /**
+     * 校验认证应答，失败时向客户端回复错误并关闭连接
+     */
+    private boolean authenticate(ClientMessage message) {
+        String error = null;
+        if (message == null || message.getType() != ClientMessage.MessageType.AUTHENTICATE) {
+            error = "Server requires secret, but no secret was provided";
+        } else if (!auth.validate(challenge, message.getAuthenticateTag())) {
+            error = "Invalid secret";
+        }
+        if (error == null) {
+            challenge = null;
+            return true;
+        }
+        logger.warn("Server handshake failed: {}", error);
+        try {
+            write(ServerMessage.error(error));
+        } catch (IOException e) {
+            // 连接可能已关闭，这是预期的
+        }
+        abort();
+        return false;
+    }
+
+    /**
+     * 非阻塞写出一帧；新连接的发送缓冲区为空，握手期间的短帧总能一次写完，写不完时视为连接异常
+     */
+    private void write(ServerMessage message) throws IOException {
+        ByteBuffer frame = ByteBuffer.wrap(Delimited.encodeFrame(message));
+        channel.write(frame);
+        if (frame.hasRemaining()) {
+            throw new IOException("Send buffer full during handshake");
+        }
+    }
+
+    private void expire() {
+        if (finish()) {
+            logger.debug("Handshake with {} timed out", channel.socket().getRemoteSocketAddress());
+            Server.closeQuietly(channel);
+        }
+    }
+
+    /**
+     * 结束握手并关闭连接，可以从任意线程调用
+     */
+    void abort() {
+        finish();
+        Server.closeQuietly(channel);
+    }
+
+    /**
+     * 标记握手结束，返回本次调用是否改变了状态
+     */
+    private boolean finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return false;
+        }
+        TimerWheel.Timeout current = deadline;
+        if (current != null) {
+            current.cancel();
+        }
+        server.handshakeFinished();
+        return true;
+    }
+}
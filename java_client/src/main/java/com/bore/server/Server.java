@@ -0,0 +1,499 @@
+package com.bore.server;
+
+import com.bore.auth.Authenticator;
+import com.bore.nio.SelectorEngine;
+import com.bore.shared.ClientMessage;
+import com.bore.shared.Delimited;
+import com.bore.shared.Feature;
+import com.bore.shared.ServerMessage;
+import com.bore.util.IdleTimeout;
+import com.bore.util.TimerWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * bore服务器，与Rust服务器使用相同的协议
+ *
+ * 控制端口和所有客户端的公共端口由一个接受线程在同一个Selector上处理；新连接的认证和首条消息也在该线程上
+ * 非阻塞读取，整个握手有一个截止时间；等待客户端接受的公共连接、握手截止时间和心跳由共享时间轮计时；
+ * 转接后的连接交给非阻塞转发引擎。因此连接数只受文件描述符和内存限制，与线程数无关：
+ * 读到首条消息后建立会话或转接连接的工作和控制消息的写出使用有界线程池，都不会无限期等待客户端。
+ */
+public class Server implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(Server.class);
+
+    // 未被接受的连接的保留时间，与Rust服务器一致
+    private static final long STALE_CONNECTION_MS = 10_000;
+
+    // 随机选择公共端口时的尝试次数，与Rust服务器一致
+    private static final int PORT_ATTEMPTS = 150;
+
+    // 本服务器支持的协议扩展，多路复用需要每个流一个线程，不在服务器端提供
+    private static final Set<Feature> SUPPORTED_FEATURES = EnumSet.of(Feature.BINARY);
+
+    private final ServerOptions options;
+    private final Authenticator auth;
+    private final ServerSocketChannel control;
+    private final Selector selector;
+    // 其他线程提交、在接受线程中执行的任务（注册公共端口）
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final ExecutorService handshakes;
+    private final ExecutorService writers;
+    private final SelectorEngine engine;
+    private final TimerWheel wheel = TimerWheel.shared();
+    private final ConcurrentMap<UUID, Pending> pending = new ConcurrentHashMap<>();
+    private final Set<ControlSession> sessions = ConcurrentHashMap.newKeySet();
+    // 正在进行中的握手数
+    private final AtomicInteger handshaking = new AtomicInteger();
+    private volatile boolean running = true;
+    private volatile boolean listening;
+
+    private Server(ServerOptions options, Authenticator auth, ServerSocketChannel control, Selector selector,
+                   SelectorEngine engine) {
+        this.options = options;
+        this.auth = auth;
+        this.control = control;
+        this.selector = selector;
+        this.engine = engine;
+        this.handshakes = new ThreadPoolExecutor(options.getHandshakeThreads(), options.getHandshakeThreads(),
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(options.getHandshakeQueueSize()),
+                daemon("bore-server-handshake"));
+        ((ThreadPoolExecutor) handshakes).allowCoreThreadTimeOut(true);
+        // 每个会话同时最多有一个写出任务，队列长度不超过会话数
+        this.writers = new ThreadPoolExecutor(options.getControlWriterThreads(), options.getControlWriterThreads(),
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), daemon("bore-server-control"));
+        ((ThreadPoolExecutor) writers).allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 绑定控制端口并创建服务器，调用listen开始接受连接
+     */
+    public static Server create(String secret, ServerOptions options) throws IOException {
+        if (options.getMinPort() > options.getMaxPort()) {
+            throw new IllegalArgumentException("must provide at least one port");
+        }
+        Authenticator auth = secret != null && !secret.isEmpty() ? new Authenticator(secret) : null;
+        ServerSocketChannel control = ServerSocketChannel.open();
+        Selector selector = null;
+        SelectorEngine engine = null;
+        try {
+            control.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            control.bind(new InetSocketAddress(options.getBindAddr(), options.getControlPort()), options.getBacklog());
+            control.configureBlocking(false);
+            selector = Selector.open();
+            control.register(selector, SelectionKey.OP_ACCEPT);
+            engine = new SelectorEngine(options.getIoThreads());
+        } catch (IOException e) {
+            closeQuietly(selector);
+            closeQuietly(control);
+            throw e;
+        }
+        return new Server(options, auth, control, selector, engine);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public int getControlPort() {
+        return control.socket().getLocalPort();
+    }
+
+    /**
+     * 在当前线程中接受控制连接和所有公共端口上的连接，直到调用close
+     */
+    public void listen() throws IOException {
+        logger.info("Server listening on {}", control.getLocalAddress());
+        listening = true;
+        try {
+            while (running) {
+                selector.select();
+
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    Object attachment = key.attachment();
+                    if (attachment == null) {
+                        acceptControl();
+                    } else if (attachment instanceof Handshake) {
+                        ((Handshake) attachment).read();
+                    } else {
+                        ((ControlSession) attachment).acceptPublic();
+                    }
+                }
+            }
+        } finally {
+            close();
+            // 关闭Selector不会关闭注册在其上的通道
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Handshake) {
+                    ((Handshake) key.attachment()).abort();
+                }
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private void acceptControl() {
+        SocketChannel channel;
+        while ((channel = accept(control)) != null) {
+            if (handshaking.get() >= options.getMaxHandshakes()) {
+                logger.warn("Too many pending handshakes, dropping connection from {}", remoteAddress(channel));
+                closeQuietly(channel);
+                continue;
+            }
+            handshaking.incrementAndGet();
+            new Handshake(this, channel, auth).start(selector, wheel);
+        }
+    }
+
+    void handshakeFinished() {
+        handshaking.decrementAndGet();
+    }
+
+    /**
+     * 在接受线程中调用：握手已读到首条消息，通道的键已取消
+     *
+     * 取消的键在下一次select时才注销，之后通道才能恢复为阻塞模式，再交给握手线程池建立会话或转接连接
+     */
+    void completeHandshake(SocketChannel channel, ClientMessage message, byte[] buffered) {
+        selectorTasks.add(() -> {
+            try {
+                channel.configureBlocking(true);
+                handshakes.execute(() -> handleMessage(channel, message, buffered));
+            } catch (IOException | RejectedExecutionException e) {
+                logger.warn("Dropping connection from {}: {}", remoteAddress(channel),
+                        e instanceof RejectedExecutionException ? "too many pending handshakes" : e.getMessage());
+                closeQuietly(channel);
+            }
+        });
+        selector.wakeup();
+    }
+
+    /**
+     * 接受一个连接，没有待接受的连接或出错时返回null；返回的通道为阻塞模式
+     */
+    static SocketChannel accept(ServerSocketChannel listener) {
+        SocketChannel channel = null;
+        try {
+            channel = listener.accept();
+            if (channel != null) {
+                channel.socket().setTcpNoDelay(true);
+            }
+            return channel;
+        } catch (IOException e) {
+            closeQuietly(channel);
+            // 文件描述符耗尽等错误，留待下一次选择时重试
+            logger.warn("Failed to accept connection: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 按首条消息将连接转为控制连接或数据连接，不等待客户端发送数据
+     *
+     * 控制连接上服务器不再读取，首条消息之后已读入的数据只对数据连接有意义
+     */
+    private void handleMessage(SocketChannel channel, ClientMessage message, byte[] buffered) {
+        Delimited stream = null;
+        boolean handedOff = false;
+        try {
+            switch (message.getType()) {
+                case HELLO:
+                    stream = new Delimited(channel.socket());
+                    handedOff = handleHello(stream, message.getHelloPort(), null);
+                    break;
+                case EXTENDED_HELLO:
+                    stream = new Delimited(channel.socket());
+                    handedOff = handleHello(stream, message.getHelloPort(), message.getFeatures());
+                    break;
+                case ACCEPT:
+                    handedOff = handleAccept(channel, message.getAcceptId(), buffered);
+                    break;
+                case AUTHENTICATE:
+                    logger.warn("Unexpected authenticate");
+                    break;
+                default:
+                    logger.warn("Unsupported message {}", message.getType());
+                    break;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Connection exited with error: {}", e.getMessage());
+        } finally {
+            if (!handedOff) {
+                closeQuietly(stream != null ? stream : channel);
+            }
+        }
+    }
+
+    /**
+     * 为客户端绑定公共端口并建立控制会话，端口不可用时回复错误
+     */
+    private boolean handleHello(Delimited stream, int port, Set<Feature> requested) throws IOException {
+        ServerSocketChannel listener;
+        try {
+            listener = createListener(port);
+        } catch (IOException e) {
+            stream.send(ServerMessage.error(e.getMessage()));
+            return false;
+        }
+
+        ControlSession session;
+        try {
+            int publicPort = listener.socket().getLocalPort();
+            logger.info("New client on port {}", publicPort);
+            if (requested == null) {
+                stream.send(ServerMessage.hello(publicPort));
+            } else {
+                Set<Feature> granted = EnumSet.noneOf(Feature.class);
+                granted.addAll(requested);
+                granted.retainAll(SUPPORTED_FEATURES);
+                stream.send(ServerMessage.extendedHello(publicPort, granted));
+                stream.setBinary(granted.contains(Feature.BINARY));
+            }
+            session = new ControlSession(this, stream, listener, publicPort);
+        } catch (IOException e) {
+            closeQuietly(listener);
+            throw e;
+        }
+        sessions.add(session);
+        session.start();
+        if (!running) {
+            session.close();
+        }
+        return true;
+    }
+
+    /**
+     * 按Rust服务器的规则绑定公共端口：指定端口时必须在允许范围内，否则在范围内随机尝试
+     */
+    private ServerSocketChannel createListener(int port) throws IOException {
+        if (port > 0) {
+            if (port < options.getMinPort() || port > options.getMaxPort()) {
+                throw new IOException("client port number not in allowed range");
+            }
+            return bind(port);
+        }
+        for (int i = 0; i < PORT_ATTEMPTS; i++) {
+            try {
+                return bind(ThreadLocalRandom.current().nextInt(options.getMinPort(), options.getMaxPort() + 1));
+            } catch (IOException e) {
+                // 端口被占用，换一个继续尝试
+            }
+        }
+        throw new IOException("failed to find an available port");
+    }
+
+    private ServerSocketChannel bind(int port) throws IOException {
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        try {
+            listener.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            listener.bind(new InetSocketAddress(options.getBindTunnels(), port), options.getBacklog());
+            listener.configureBlocking(false);
+            return listener;
+        } catch (IOException e) {
+            closeQuietly(listener);
+            String message = String.valueOf(e.getMessage());
+            if (e instanceof BindException && message.contains("in use")) {
+                throw new IOException("port already in use", e);
+            }
+            if (message.contains("Permission denied")) {
+                throw new IOException("permission denied", e);
+            }
+            throw new IOException("failed to bind to port", e);
+        }
+    }
+
+    /**
+     * 取出等待中的公共连接，与数据连接对接后交给转发引擎
+     */
+    private boolean handleAccept(SocketChannel channel, UUID id, byte[] buffered) throws IOException {
+        logger.info("Forwarding connection {}", id);
+        Pending entry = pending.remove(id);
+        if (entry == null) {
+            logger.warn("Missing connection {}", id);
+            return false;
+        }
+        entry.expiry.cancel();
+
+        SocketChannel incoming = entry.channel;
+        try {
+            // 客户端可能紧接着Accept发送了数据，握手时已读入的部分先写给公共连接
+            ByteBuffer data = ByteBuffer.wrap(buffered);
+            while (data.hasRemaining()) {
+                incoming.write(data);
+            }
+
+            IdleTimeout idle = options.getIdleTimeoutMs() > 0 ? new IdleTimeout(options.getIdleTimeoutMs()) : null;
+            Closeable tunnel = engine.forward(channel, incoming, () -> {
+                if (idle != null) {
+                    idle.cancel();
+                }
+            }, idle, idle);
+            if (idle != null) {
+                idle.start(wheel, () -> {
+                    logger.info("Closing idle connection {}", id);
+                    closeQuietly(tunnel);
+                });
+            }
+            return true;
+        } catch (IOException e) {
+            closeQuietly(incoming);
+            throw e;
+        }
+    }
+
+    /**
+     * 登记一个等待客户端接受的公共连接，超过保留时间未被接受时关闭
+     */
+    UUID addPending(SocketChannel channel) {
+        UUID id = UUID.randomUUID();
+        Pending entry = new Pending(channel);
+        // 先登记过期任务再放入表中，取出连接的线程总能看到过期任务
+        entry.expiry = wheel.schedule(TimeUnit.MILLISECONDS.toNanos(STALE_CONNECTION_MS), () -> {
+            if (pending.remove(id, entry)) {
+                logger.warn("Removed stale connection {}", id);
+                closeQuietly(channel);
+            }
+        });
+        pending.put(id, entry);
+        return id;
+    }
+
+    /**
+     * 在接受线程中注册公共端口，注册必须在Selector所在线程完成才不会与select竞争
+     */
+    void register(ControlSession session, ServerSocketChannel listener) {
+        selectorTasks.add(() -> {
+            try {
+                listener.register(selector, SelectionKey.OP_ACCEPT, session);
+            } catch (IOException e) {
+                logger.warn("Failed to register port {}: {}", session.getPort(), e.getMessage());
+                session.close();
+            }
+        });
+        selector.wakeup();
+    }
+
+    /**
+     * 关闭公共端口并唤醒接受线程：已注册通道的关闭在下一次select时才完成，之后端口才能重新绑定
+     */
+    void unregister(ControlSession session, ServerSocketChannel listener) {
+        sessions.remove(session);
+        closeQuietly(listener);
+        selector.wakeup();
+    }
+
+    TimerWheel wheel() {
+        return wheel;
+    }
+
+    ExecutorService writers() {
+        return writers;
+    }
+
+    /**
+     * 当前等待客户端接受的公共连接数
+     */
+    public int getPendingConnections() {
+        return pending.size();
+    }
+
+    /**
+     * 当前连接的客户端数
+     */
+    public int getClients() {
+        return sessions.size();
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        closeQuietly(control);
+        for (ControlSession session : sessions) {
+            session.close();
+        }
+        for (Pending entry : pending.values()) {
+            entry.expiry.cancel();
+            closeQuietly(entry.channel);
+        }
+        pending.clear();
+        handshakes.shutdownNow();
+        writers.shutdownNow();
+        engine.close();
+        if (!listening) {
+            closeQuietly(selector);
+        }
+    }
+
+    private static String remoteAddress(SocketChannel channel) {
+        return String.valueOf(channel.socket().getRemoteSocketAddress());
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
+        }
+    }
+
+    /**
+     * 等待客户端接受的公共连接
+     */
+    private static final class Pending {
+        private final SocketChannel channel;
+        private volatile TimerWheel.Timeout expiry;
+
+        private Pending(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.bore.server;
+
+import com.bore.shared.Constants;
+import com.bore.util.BufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.net.InetAddress;
+import java.util.concurrent.Callable;
+
+/**
+ * 服务器命令行入口，参数与Rust版本的bore server一致
+ */
+@Command(name = "bore-server", mixinStandardHelpOptions = true,
+        description = "Java server for bore tunnel service")
+public class ServerMain implements Callable<Integer> {
+    private static final Logger log = LoggerFactory.getLogger(ServerMain.class);
+
+    @Option(names = {"--min-port"}, description = "Minimum accepted TCP port number", defaultValue = "1024")
+    private int minPort;
+
+    @Option(names = {"--max-port"}, description = "Maximum accepted TCP port number", defaultValue = "65535")
+    private int maxPort;
+
+    @Option(names = {"-s", "--secret"}, description = "Optional secret for authentication (default: $BORE_SECRET)",
+            defaultValue = "${env:BORE_SECRET}")
+    private String secret;
+
+    @Option(names = {"--bind-addr"}, description = "IP address to bind the control server to (default: all addresses)")
+    private InetAddress bindAddr;
+
+    @Option(names = {"--bind-tunnels"}, description = "IP address where tunnels will listen on (default: all addresses)")
+    private InetAddress bindTunnels;
+
+    @Option(names = {"--control-port"}, description = "TCP port for client control connections", defaultValue = "" + Constants.CONTROL_PORT)
+    private int controlPort;
+
+    @Option(names = {"--io-threads"}, description = "Number of selector loops forwarding tunneled connections (default: number of CPU cores)")
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = {"--max-handshakes"}, description = "Maximum new connections still authenticating or sending their first message; further connections are dropped", defaultValue = "16384")
+    private int maxHandshakes;
+
+    @Option(names = {"--handshake-threads"}, description = "Threads setting up a client session or a forwarded connection once its first message was read", defaultValue = "8")
+    private int handshakeThreads;
+
+    @Option(names = {"--control-writer-threads"}, description = "Threads writing control messages to clients", defaultValue = "16")
+    private int controlWriterThreads;
+
+    @Option(names = {"--idle-timeout-ms"}, description = "Close tunneled connections with no traffic in either direction for this long (0 = never)", defaultValue = "0")
+    private long idleTimeoutMs;
+
+    @Option(names = {"--buffer-pool-limit"}, description = "Maximum idle bytes kept by each buffer pool, in MiB", defaultValue = "64")
+    private long bufferPoolLimitMb;
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new ServerMain()).execute(args));
+    }
+
+    @Override
+    public Integer call() {
+        try {
+            BufferPool.heap().setMaxPooledBytes(bufferPoolLimitMb * 1024 * 1024);
+            BufferPool.direct().setMaxPooledBytes(bufferPoolLimitMb * 1024 * 1024);
+
+            ServerOptions options = new ServerOptions()
+                    .setControlPort(controlPort)
+                    .setMinPort(minPort)
+                    .setMaxPort(maxPort)
+                    .setBindAddr(bindAddr)
+                    .setBindTunnels(bindTunnels)
+                    .setIoThreads(ioThreads)
+                    .setMaxHandshakes(maxHandshakes)
+                    .setHandshakeThreads(handshakeThreads)
+                    .setControlWriterThreads(controlWriterThreads)
+                    .setIdleTimeoutMs(idleTimeoutMs);
+            Server server = Server.create(secret, options);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                log.info("Shutting down server...");
+                server.close();
+            }));
+            server.listen();
+            return 0;
+        } catch (Exception e) {
+            log.error("Error: {}", e.getMessage(), e);
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.bore.server;
+
+import com.bore.shared.Constants;
+
+import java.net.InetAddress;
+
+/**
+ * 服务器配置，默认值与Rust服务器一致
+ */
+public class ServerOptions {
+    private int controlPort = Constants.CONTROL_PORT;
+    private int minPort = 1024;
+    private int maxPort = 65535;
+    // 控制端口和公共端口绑定的地址，null表示所有地址
+    private InetAddress bindAddr;
+    private InetAddress bindTunnels;
+    // 转发引擎的事件循环数，小于等于0时按CPU核数
+    private int ioThreads;
+    // 认证和首条消息在接受线程上非阻塞读取，同时进行中的握手数超过上限时丢弃新连接
+    private int maxHandshakes = 16384;
+    // 读到首条消息后建立控制会话或转接数据连接的线程数，这些工作不等待客户端；超出的任务在队列中等待
+    private int handshakeThreads = 8;
+    private int handshakeQueueSize = 4096;
+    // 向客户端写出控制消息的线程数，写入阻塞超过NETWORK_TIMEOUT_MS的会话被关闭
+    private int controlWriterThreads = 16;
+    // 公共端口和控制端口的监听队列长度
+    private int backlog = 1024;
+    // 双向都没有数据传输超过该时间时关闭转接的连接，0表示不限制
+    private long idleTimeoutMs;
+
+    public int getControlPort() {
+        return controlPort;
+    }
+
+    public ServerOptions setControlPort(int controlPort) {
+        this.controlPort = controlPort;
+        return this;
+    }
+
+    public int getMinPort() {
+        return minPort;
+    }
+
+    public ServerOptions setMinPort(int minPort) {
+        this.minPort = minPort;
+        return this;
+    }
+
+    public int getMaxPort() {
+        return maxPort;
+    }
+
+    public ServerOptions setMaxPort(int maxPort) {
+        this.maxPort = maxPort;
+        return this;
+    }
+
+    public InetAddress getBindAddr() {
+        return bindAddr;
+    }
+
+    public ServerOptions setBindAddr(InetAddress bindAddr) {
+        this.bindAddr = bindAddr;
+        return this;
+    }
+
+    public InetAddress getBindTunnels() {
+        return bindTunnels;
+    }
+
+    public ServerOptions setBindTunnels(InetAddress bindTunnels) {
+        this.bindTunnels = bindTunnels;
+        return this;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public ServerOptions setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+        return this;
+    }
+
+    public int getMaxHandshakes() {
+        return maxHandshakes;
+    }
+
+    public ServerOptions setMaxHandshakes(int maxHandshakes) {
+        this.maxHandshakes = maxHandshakes;
+        return this;
+    }
+
+    public int getHandshakeThreads() {
+        return handshakeThreads;
+    }
+
+    public ServerOptions setHandshakeThreads(int handshakeThreads) {
+        this.handshakeThreads = handshakeThreads;
+        return this;
+    }
+
+    public int getHandshakeQueueSize() {
+        return handshakeQueueSize;
+    }
+
+    public ServerOptions setHandshakeQueueSize(int handshakeQueueSize) {
+        this.handshakeQueueSize = handshakeQueueSize;
+        return this;
+    }
+
+    public int getControlWriterThreads() {
+        return controlWriterThreads;
+    }
+
+    public ServerOptions setControlWriterThreads(int controlWriterThreads) {
+        this.controlWriterThreads = controlWriterThreads;
+        return this;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public ServerOptions setBacklog(int backlog) {
+        this.backlog = backlog;
+        return this;
+    }
+
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public ServerOptions setIdleTimeoutMs(long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+        return this;
+    }
+}
@@ -0,0 +1,74 @@
+package com.bore.shared;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * 二进制控制帧的编码：类型(1字节) + 负载长度(2字节) + 负载
+ *
+ * 类型字节均小于0x20，而JSON帧总是以'{'或'"'开头，因此接收方可以逐帧区分两种编码
+ */
+final class BinaryFrames {
+    static final int HEADER_LENGTH = 3;
+    static final int UUID_LENGTH = 16;
+
+    private BinaryFrames() {}
+
+    /**
+     * 判断帧的首字节是否为二进制帧类型
+     */
+    static boolean isBinary(byte first) {
+        return first > 0 && first < 0x20 && first != '\t' && first != '\n' && first != '\r';
+    }
+
+    static int payloadLength(byte[] buf, int offset) {
+        return ((buf[offset + 1] & 0xff) << 8) | (buf[offset + 2] & 0xff);
+    }
+
+    static void writeHeader(DataOutputStream output, int type, int length) throws IOException {
+        output.writeByte(type);
+        output.writeShort(length);
+    }
+
+    static void writeUuid(DataOutputStream output, UUID id) throws IOException {
+        output.writeLong(id.getMostSignificantBits());
+        output.writeLong(id.getLeastSignificantBits());
+    }
+
+    static UUID readUuid(byte[] buf, int offset, int length) throws IOException {
+        if (length != UUID_LENGTH) {
+            throw new IOException("Invalid binary UUID length " + length);
+        }
+        return new UUID(readLong(buf, offset), readLong(buf, offset + 8));
+    }
+
+    static int readPort(byte[] buf, int offset, int length) throws IOException {
+        if (length != 2) {
+            throw new IOException("Invalid binary port length " + length);
+        }
+        return ((buf[offset] & 0xff) << 8) | (buf[offset + 1] & 0xff);
+    }
+
+    static void writeString(DataOutputStream output, int type, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Constants.MAX_FRAME_LENGTH) {
+            throw new IOException("Frame too large");
+        }
+        writeHeader(output, type, bytes.length);
+        output.write(bytes);
+    }
+
+    static String readString(byte[] buf, int offset, int length) {
+        return new String(buf, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private static long readLong(byte[] buf, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buf[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
@@ -1,14 +1,25 @@
 package com.bore.shared;
 
+import com.bore.util.UuidUtils;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -16,16 +27,22 @@ import java.util.UUID;
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 @JsonSerialize(using = ClientMessage.ClientMessageSerializer.class)
+@JsonDeserialize(using = ClientMessage.ClientMessageDeserializer.class)
 public class ClientMessage {
     private MessageType type;
     private String authenticateTag;
     private int helloPort;
     private UUID acceptId;
+    private Set<Feature> features = Collections.emptySet();
 
     public enum MessageType {
         AUTHENTICATE,
         HELLO,
-        ACCEPT
+        ACCEPT,
+        // 请求公开端口并声明支持的协议扩展，不支持的服务器会直接断开连接
+        EXTENDED_HELLO,
+        // 将当前连接切换为多路复用的数据连接
+        MULTIPLEX
     }
 
     // 私有构造函数
@@ -55,6 +72,22 @@ public class ClientMessage {
         return message;
     }
 
+    // 创建带协议扩展的Hello消息
+    public static ClientMessage extendedHello(int port, Set<Feature> features) {
+        ClientMessage message = new ClientMessage();
+        message.type = MessageType.EXTENDED_HELLO;
+        message.helloPort = port;
+        message.features = features.isEmpty() ? Feature.none() : EnumSet.copyOf(features);
+        return message;
+    }
+
+    // 创建Multiplex消息
+    public static ClientMessage multiplex() {
+        ClientMessage message = new ClientMessage();
+        message.type = MessageType.MULTIPLEX;
+        return message;
+    }
+
     // Getters
     public MessageType getType() {
         return type;
@@ -71,6 +104,61 @@ public class ClientMessage {
     public UUID getAcceptId() {
         return acceptId;
     }
+
+    public Set<Feature> getFeatures() {
+        return features;
+    }
+
+    /**
+     * 是否有二进制编码，协商消息始终使用JSON
+     */
+    public boolean hasBinaryEncoding() {
+        return type != MessageType.EXTENDED_HELLO;
+    }
+
+    /**
+     * 写入二进制帧，仅在协商了Binary扩展后使用
+     */
+    public void writeBinary(DataOutputStream output) throws IOException {
+        switch (type) {
+            case AUTHENTICATE:
+                BinaryFrames.writeString(output, 1, authenticateTag);
+                break;
+            case HELLO:
+                BinaryFrames.writeHeader(output, 2, 2);
+                output.writeShort(helloPort);
+                break;
+            case ACCEPT:
+                BinaryFrames.writeHeader(output, 3, BinaryFrames.UUID_LENGTH);
+                BinaryFrames.writeUuid(output, acceptId);
+                break;
+            case MULTIPLEX:
+                BinaryFrames.writeHeader(output, 4, 0);
+                break;
+            default:
+                throw new IOException("No binary encoding for " + type);
+        }
+    }
+
+    /**
+     * 解析二进制帧，buf[offset]为类型字节
+     */
+    public static ClientMessage readBinary(byte[] buf, int offset, int length) throws IOException {
+        int payload = offset + BinaryFrames.HEADER_LENGTH;
+        int payloadLength = length - BinaryFrames.HEADER_LENGTH;
+        switch (buf[offset]) {
+            case 1:
+                return authenticate(BinaryFrames.readString(buf, payload, payloadLength));
+            case 2:
+                return hello(BinaryFrames.readPort(buf, payload, payloadLength));
+            case 3:
+                return accept(BinaryFrames.readUuid(buf, payload, payloadLength));
+            case 4:
+                return multiplex();
+            default:
+                throw new IOException("Unknown binary client message type " + buf[offset]);
+        }
+    }
     
     /**
      * 自定义序列化器，用于生成 Rust 格式的消息
@@ -88,6 +176,11 @@ public class ClientMessage {
         @Override
         public void serialize(ClientMessage value, JsonGenerator gen, SerializerProvider provider) 
                 throws IOException, JsonProcessingException {
+            if (value.type == MessageType.MULTIPLEX) {
+                // 无数据的枚举变体序列化为字符串
+                gen.writeString("Multiplex");
+                return;
+            }
             gen.writeStartObject();
             
             switch (value.type) {
@@ -100,9 +193,85 @@ public class ClientMessage {
                 case ACCEPT:
                     gen.writeStringField("Accept", value.acceptId.toString());
                     break;
+                case EXTENDED_HELLO:
+                    gen.writeFieldName("ExtendedHello");
+                    Feature.writeHello(gen, value.helloPort, value.features);
+                    break;
             }
             
             gen.writeEndObject();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 使用流式解析器读取 Rust 格式的消息，供服务端使用
+     */
+    public static ClientMessage read(JsonParser jp) throws IOException {
+        JsonToken token = jp.currentToken();
+        if (token == null) {
+            token = jp.nextToken();
+        }
+        if (token == JsonToken.VALUE_STRING && "Multiplex".equals(jp.getText())) {
+            return multiplex();
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(jp, "Expected client message object");
+        }
+
+        ClientMessage message = new ClientMessage();
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            jp.nextToken();
+            switch (field) {
+                case "Authenticate":
+                    message.type = MessageType.AUTHENTICATE;
+                    message.authenticateTag = jp.getValueAsString();
+                    break;
+                case "Hello":
+                    message.type = MessageType.HELLO;
+                    message.helloPort = jp.getValueAsInt();
+                    break;
+                case "ExtendedHello":
+                    message.type = MessageType.EXTENDED_HELLO;
+                    message.features = Feature.none();
+                    message.helloPort = Feature.readHello(jp, message.features);
+                    break;
+                case "Accept":
+                    message.type = MessageType.ACCEPT;
+                    if (jp.currentToken() != JsonToken.VALUE_STRING) {
+                        throw new JsonParseException(jp, "Expected UUID string");
+                    }
+                    try {
+                        message.acceptId = UuidUtils.parse(jp.getTextCharacters(), jp.getTextOffset(), jp.getTextLength());
+                    } catch (IllegalArgumentException e) {
+                        throw new JsonParseException(jp, e.getMessage());
+                    }
+                    break;
+                default:
+                    jp.skipChildren();
+                    break;
+            }
+        }
+        return message;
+    }
+
+    /**
+     * 自定义反序列化器，用于处理 Rust 格式的消息
+     */
+    public static class ClientMessageDeserializer extends StdDeserializer<ClientMessage> {
+
+        public ClientMessageDeserializer() {
+            this(null);
+        }
+
+        public ClientMessageDeserializer(Class<?> vc) {
+            super(vc);
+        }
+
+        @Override
+        public ClientMessage deserialize(JsonParser jp, DeserializationContext ctxt)
+                throws IOException, JsonProcessingException {
+            return read(jp);
+        }
+    }
+}
@@ -1,90 +1,321 @@
 package com.bore.shared;
 
+import com.bore.util.BufferPool;
+import com.bore.util.CoalescingWriter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.concurrent.*;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * 使用空字符分隔的JSON帧传输流
+ * 使用空字符分隔的JSON帧传输流，协商后也可使用长度前缀的二进制帧
  */
 public class Delimited implements Closeable {
+    // 读缓冲区大小，可一次读入多个控制帧
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    // 写缓冲区大小，可容纳一批合并发送的控制帧
+    private static final int WRITE_BUFFER_SIZE = 8192;
+
+    // 直接序列化到输出流，且不随每条消息关闭或刷新输出流；ObjectMapper线程安全，所有实例共享
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+            .configure(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM, false);
+
     private final Socket socket;
-    private final DataInputStream input;
-    private final DataOutputStream output;
-    private final ObjectMapper objectMapper;
-    private final ByteArrayOutputStream readBuffer;
-    private final ExecutorService executor;
+    private final InputStream input;
+    private final CoalescingWriter output;
+
+    // 读缓冲区的归属：IDLE时可由close归还；READING时正在读取的线程持有，被关闭后由它在读取结束时归还
+    private static final int IDLE = 0;
+    private static final int READING = 1;
+    private static final int CLOSED = 2;
+    private final AtomicInteger readState = new AtomicInteger(IDLE);
+
+    // 从连接池借出的读缓冲区，[readPos, readLimit)为已读入但尚未解析的数据
+    private ByteBuffer readBuffer;
+    private int readPos;
+    private int readLimit;
+
+    // 发送时使用二进制帧，接收时总是按首字节自动识别
+    private volatile boolean binary;
 
     public Delimited(Socket socket) throws IOException {
         this.socket = socket;
-        this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
-        this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-        this.objectMapper = new ObjectMapper();
-        this.readBuffer = new ByteArrayOutputStream();
-        this.executor = Executors.newSingleThreadExecutor();
+        this.input = socket.getInputStream();
+        this.output = new CoalescingWriter(socket.getOutputStream(), WRITE_BUFFER_SIZE,
+                CoalescingWriter.DEFAULT_MAX_DELAY_NANOS);
     }
 
     /**
      * 从流中读取下一个空字符分隔的JSON指令
+     *
+     * 整块读入缓冲区后查找分隔符，ServerMessage使用流式解析，不构建JSON树也不复制帧数据；
+     * 以类型字节开头的二进制帧按长度前缀读取，两种编码可以在同一个流中混用
      */
     public <T> T recv(Class<T> type) throws IOException {
-        readBuffer.reset();
-        int b;
-        while ((b = input.read()) != 0) {
-            if (b == -1) {
+        return recv(type, 0);
+    }
+
+    /**
+     * 读取下一帧，deadlineNanos不为0时每次读取前按剩余时间设置Socket读超时
+     */
+    private <T> T recv(Class<T> type, long deadlineNanos) throws IOException {
+        beginRead();
+        try {
+            return read(type, deadlineNanos);
+        } finally {
+            endRead();
+        }
+    }
+
+    private <T> T read(Class<T> type, long deadlineNanos) throws IOException {
+        if (readBuffer == null) {
+            readBuffer = BufferPool.heap().acquire(READ_BUFFER_SIZE);
+        }
+        byte[] buf = readBuffer.array();
+
+        int scanned = readPos;
+        int end;
+        while (true) {
+            int available = readLimit - readPos;
+            if (available > 0 && BinaryFrames.isBinary(buf[readPos])) {
+                if (available >= BinaryFrames.HEADER_LENGTH) {
+                    int length = BinaryFrames.HEADER_LENGTH + BinaryFrames.payloadLength(buf, readPos);
+                    if (length > Constants.MAX_FRAME_LENGTH + BinaryFrames.HEADER_LENGTH) {
+                        throw new IOException("Frame too large");
+                    }
+                    if (available >= length) {
+                        int start = readPos;
+                        readPos += length;
+                        return decodeBinary(type, buf, start, length);
+                    }
+                }
+            } else {
+                end = indexOfDelimiter(buf, scanned, readLimit);
+                if (end >= 0) {
+                    break;
+                }
+                if (available > Constants.MAX_FRAME_LENGTH) {
+                    throw new IOException("Frame too large");
+                }
+                scanned = readLimit;
+            }
+            // 将未完成的帧移到缓冲区开头再继续读取
+            if (readLimit == buf.length) {
+                int pending = readLimit - readPos;
+                System.arraycopy(buf, readPos, buf, 0, pending);
+                scanned -= readPos;
+                readPos = 0;
+                readLimit = pending;
+            }
+            if (deadlineNanos != 0) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (remainingMs <= 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                socket.setSoTimeout((int) remainingMs);
+            }
+            int n = input.read(buf, readLimit, buf.length - readLimit);
+            if (n == -1) {
                 return null; // EOF
             }
-            readBuffer.write(b);
-            if (readBuffer.size() > Constants.MAX_FRAME_LENGTH) {
+            readLimit += n;
+        }
+
+        int start = readPos;
+        int length = end - start;
+        readPos = end + 1;
+        if (length > Constants.MAX_FRAME_LENGTH) {
+            throw new IOException("Frame too large");
+        }
+        return decodeJson(type, buf, start, length);
+    }
+
+    /**
+     * 解码不含分隔符的JSON帧，空帧返回null
+     */
+    private static <T> T decodeJson(Class<T> type, byte[] buf, int start, int length) throws IOException {
+        if (length == 0) {
+            return null;
+        }
+
+        if (type == ServerMessage.class) {
+            try (JsonParser parser = objectMapper.getFactory().createParser(buf, start, length)) {
+                return type.cast(ServerMessage.read(parser));
+            }
+        }
+        if (type == ClientMessage.class) {
+            try (JsonParser parser = objectMapper.getFactory().createParser(buf, start, length)) {
+                return type.cast(ClientMessage.read(parser));
+            }
+        }
+        return objectMapper.readValue(buf, start, length, type);
+    }
+
+    /**
+     * 供非阻塞读取使用：在buf[offset, limit)中查找第一个完整的帧，返回帧之后的位置，帧还不完整时返回-1
+     */
+    public static int frameEnd(byte[] buf, int offset, int limit) throws IOException {
+        int available = limit - offset;
+        if (available <= 0) {
+            return -1;
+        }
+        if (BinaryFrames.isBinary(buf[offset])) {
+            if (available < BinaryFrames.HEADER_LENGTH) {
+                return -1;
+            }
+            int length = BinaryFrames.HEADER_LENGTH + BinaryFrames.payloadLength(buf, offset);
+            if (length > Constants.MAX_FRAME_LENGTH + BinaryFrames.HEADER_LENGTH) {
                 throw new IOException("Frame too large");
             }
+            return available >= length ? offset + length : -1;
         }
+        int end = indexOfDelimiter(buf, offset, limit);
+        if (end < 0 ? available > Constants.MAX_FRAME_LENGTH : end - offset > Constants.MAX_FRAME_LENGTH) {
+            throw new IOException("Frame too large");
+        }
+        return end < 0 ? -1 : end + 1;
+    }
 
-        byte[] data = readBuffer.toByteArray();
-        if (data.length == 0) {
-            return null;
+    /**
+     * 解码frameEnd找到的帧buf[offset, end)，空的JSON帧返回null
+     */
+    public static <T> T decodeFrame(Class<T> type, byte[] buf, int offset, int end) throws IOException {
+        if (BinaryFrames.isBinary(buf[offset])) {
+            return decodeBinary(type, buf, offset, end - offset);
+        }
+        return decodeJson(type, buf, offset, end - offset - 1);
+    }
+
+    /**
+     * 将消息编码为一个JSON帧，供非阻塞写出使用
+     */
+    public static byte[] encodeFrame(Object msg) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        objectMapper.writeValue(out, msg);
+        out.write(0); // 空字符分隔符
+        return out.toByteArray();
+    }
+
+    private static <T> T decodeBinary(Class<T> type, byte[] buf, int start, int length) throws IOException {
+        if (type == ServerMessage.class) {
+            return type.cast(ServerMessage.readBinary(buf, start, length));
+        }
+        if (type == ClientMessage.class) {
+            return type.cast(ClientMessage.readBinary(buf, start, length));
         }
+        throw new IOException("No binary encoding for " + type.getSimpleName());
+    }
 
-        return objectMapper.readValue(data, type);
+    private static int indexOfDelimiter(byte[] buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == 0) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
      * 从流中读取下一个空字符分隔的JSON指令，带有默认超时
      */
     public <T> T recvTimeout(Class<T> type) throws IOException, TimeoutException {
-        Future<T> future = executor.submit(() -> recv(type));
+        // 使用Socket读超时实现截止时间，不需要额外的线程；超时后已读入的数据仍保留在缓冲区中
+        int previousTimeout = socket.getSoTimeout();
         try {
-            return future.get(Constants.NETWORK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IOException("Interrupted while waiting for message", e);
-        } catch (ExecutionException e) {
-            Throwable cause = e.getCause();
-            if (cause instanceof IOException) {
-                throw (IOException) cause;
-            }
-            throw new IOException("Error receiving message", e);
-        } catch (TimeoutException e) {
-            future.cancel(true);
+            return recv(type, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Constants.NETWORK_TIMEOUT_MS));
+        } catch (SocketTimeoutException e) {
             throw new TimeoutException("Timed out waiting for initial message");
+        } finally {
+            restoreTimeout(previousTimeout);
+        }
+    }
+
+    /**
+     * 恢复读超时；读取期间Socket可能已被关闭，此时设置会失败，不能覆盖读取本身的异常
+     */
+    private void restoreTimeout(int timeout) {
+        if (socket.isClosed()) {
+            return;
+        }
+        try {
+            socket.setSoTimeout(timeout);
+        } catch (SocketException e) {
+            // 忽略关闭错误
         }
     }
 
     /**
      * 在流上发送空字符终止的JSON指令
+     *
+     * 可以被多个线程同时调用，同时发送的消息合并为一次写入
      */
     public void send(Object msg) throws IOException {
-        byte[] data = objectMapper.writeValueAsBytes(msg);
-        output.write(data);
-        output.write(0); // 空字符分隔符
-        output.flush();
+        if (binary && msg instanceof ServerMessage && ((ServerMessage) msg).hasBinaryEncoding()) {
+            output.write(((ServerMessage) msg)::writeBinary);
+        } else if (binary && msg instanceof ClientMessage && ((ClientMessage) msg).hasBinaryEncoding()) {
+            output.write(((ClientMessage) msg)::writeBinary);
+        } else {
+            output.write(out -> {
+                objectMapper.writeValue((OutputStream) out, msg);
+                out.write(0); // 空字符分隔符
+            });
+        }
+    }
+
+    /**
+     * 发送统计，包括已发送帧数和实际写出的批次数
+     */
+    public CoalescingWriter getWriter() {
+        return output;
+    }
+
+    /**
+     * 发送时是否使用二进制编码，只能在双方通过ExtendedHello协商了Binary扩展后开启
+     */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
     }
 
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * 取得读缓冲区的使用权，流已关闭时失败
+     */
+    private void beginRead() throws IOException {
+        if (!readState.compareAndSet(IDLE, READING)) {
+            throw new IOException(readState.get() == CLOSED ? "Stream closed" : "Concurrent read");
+        }
+    }
+
+    /**
+     * 交还读缓冲区的使用权；读取期间流被关闭时，缓冲区不会再被读写，由当前线程归还给连接池
+     */
+    private void endRead() {
+        if (!readState.compareAndSet(READING, IDLE)) {
+            releaseReadBuffer();
+        }
+    }
+
+    /**
+     * 关闭流和Socket；其他线程正阻塞在读取中时，读缓冲区在该线程的读取返回后才归还
+     */
     @Override
     public void close() throws IOException {
-        executor.shutdownNow();
+        if (readState.getAndSet(CLOSED) == IDLE) {
+            releaseReadBuffer();
+        }
         input.close();
         output.close();
         socket.close();
@@ -98,16 +329,38 @@ public class Delimited implements Closeable {
     }
 
     /**
-     * 获取输入流中的可用数据
+     * 获取已读入缓冲区但尚未解析的数据
      */
     public byte[] getAvailableData() throws IOException {
-        int available = input.available();
-        if (available <= 0) {
+        if (readLimit <= readPos) {
             return new byte[0];
         }
+        byte[] data = new byte[readLimit - readPos];
+        System.arraycopy(readBuffer.array(), readPos, data, 0, data.length);
+        return data;
+    }
 
-        byte[] data = new byte[available];
-        input.readFully(data);
+    /**
+     * 结束帧模式：返回尚未解析的数据并归还读缓冲区，底层Socket保持打开，由调用方继续使用
+     */
+    public byte[] detach() throws IOException {
+        beginRead();
+        byte[] data;
+        try {
+            data = getAvailableData();
+            releaseReadBuffer();
+        } finally {
+            endRead();
+        }
         return data;
     }
-}
\ No newline at end of file
+
+    private void releaseReadBuffer() {
+        if (readBuffer != null) {
+            BufferPool.heap().release(readBuffer);
+            readBuffer = null;
+            readPos = 0;
+            readLimit = 0;
+        }
+    }
+}
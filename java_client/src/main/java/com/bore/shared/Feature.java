@@ -0,0 +1,78 @@
+package com.bore.shared;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * 在ExtendedHello中协商的协议扩展，标准的Rust服务器不支持任何扩展
+ */
+public enum Feature {
+    // 在少量长连接上多路复用所有隧道连接
+    MULTIPLEX("Multiplex"),
+    // Hello之后控制帧使用二进制编码
+    BINARY("Binary"),
+    // 数据连接上的数据分帧压缩，见com.bore.compress.Compression
+    COMPRESS("Compress");
+
+    private final String wireName;
+
+    Feature(String wireName) {
+        this.wireName = wireName;
+    }
+
+    public String getWireName() {
+        return wireName;
+    }
+
+    /**
+     * 写入ExtendedHello的负载：{"port":8080,"features":["Multiplex"]}
+     */
+    static void writeHello(JsonGenerator gen, int port, Set<Feature> features) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("port", port);
+        gen.writeArrayFieldStart("features");
+        for (Feature feature : features) {
+            gen.writeString(feature.wireName);
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    /**
+     * 读取ExtendedHello的负载，返回端口并将识别出的扩展加入features，未知扩展被忽略
+     */
+    static int readHello(JsonParser jp, Set<Feature> features) throws IOException {
+        if (jp.currentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(jp, "Expected extended hello object");
+        }
+        int port = 0;
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            jp.nextToken();
+            if ("port".equals(field)) {
+                port = jp.getValueAsInt();
+            } else if ("features".equals(field) && jp.currentToken() == JsonToken.START_ARRAY) {
+                while (jp.nextToken() == JsonToken.VALUE_STRING) {
+                    for (Feature feature : values()) {
+                        if (feature.wireName.equals(jp.getText())) {
+                            features.add(feature);
+                        }
+                    }
+                }
+            } else {
+                jp.skipChildren();
+            }
+        }
+        return port;
+    }
+
+    static Set<Feature> none() {
+        return EnumSet.noneOf(Feature.class);
+    }
+}
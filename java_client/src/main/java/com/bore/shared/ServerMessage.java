@@ -1,14 +1,24 @@
 package com.bore.shared;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.bore.util.UuidUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -16,19 +26,23 @@ import java.util.UUID;
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 @JsonDeserialize(using = ServerMessage.ServerMessageDeserializer.class)
+@JsonSerialize(using = ServerMessage.ServerMessageSerializer.class)
 public class ServerMessage {
     private MessageType type;
     private UUID challengeId;
     private int helloPort;
     private UUID connectionId;
     private String errorMessage;
+    private Set<Feature> features = Collections.emptySet();
 
     public enum MessageType {
         CHALLENGE,
         HELLO,
         HEARTBEAT,
         CONNECTION,
-        ERROR
+        ERROR,
+        // 对ExtendedHello的应答，包含公开端口和服务器接受的协议扩展
+        EXTENDED_HELLO
     }
 
     // 私有构造函数
@@ -73,6 +87,15 @@ public class ServerMessage {
         return serverMessage;
     }
 
+    // 创建带协议扩展的Hello应答
+    public static ServerMessage extendedHello(int port, Set<Feature> features) {
+        ServerMessage message = new ServerMessage();
+        message.type = MessageType.EXTENDED_HELLO;
+        message.helloPort = port;
+        message.features = features.isEmpty() ? Feature.none() : EnumSet.copyOf(features);
+        return message;
+    }
+
     // Getters
     public MessageType getType() {
         return type;
@@ -93,7 +116,138 @@ public class ServerMessage {
     public String getErrorMessage() {
         return errorMessage;
     }
+
+    public Set<Feature> getFeatures() {
+        return features;
+    }
+
+    /**
+     * 是否有二进制编码，协商消息始终使用JSON
+     */
+    public boolean hasBinaryEncoding() {
+        return type != MessageType.EXTENDED_HELLO;
+    }
+
+    /**
+     * 写入二进制帧，仅在协商了Binary扩展后使用
+     */
+    public void writeBinary(DataOutputStream output) throws IOException {
+        switch (type) {
+            case CHALLENGE:
+                BinaryFrames.writeHeader(output, 1, BinaryFrames.UUID_LENGTH);
+                BinaryFrames.writeUuid(output, challengeId);
+                break;
+            case HELLO:
+                BinaryFrames.writeHeader(output, 2, 2);
+                output.writeShort(helloPort);
+                break;
+            case HEARTBEAT:
+                BinaryFrames.writeHeader(output, 3, 0);
+                break;
+            case CONNECTION:
+                BinaryFrames.writeHeader(output, 4, BinaryFrames.UUID_LENGTH);
+                BinaryFrames.writeUuid(output, connectionId);
+                break;
+            case ERROR:
+                BinaryFrames.writeString(output, 5, errorMessage);
+                break;
+            default:
+                throw new IOException("No binary encoding for " + type);
+        }
+    }
+
+    /**
+     * 解析二进制帧，buf[offset]为类型字节
+     */
+    public static ServerMessage readBinary(byte[] buf, int offset, int length) throws IOException {
+        int payload = offset + BinaryFrames.HEADER_LENGTH;
+        int payloadLength = length - BinaryFrames.HEADER_LENGTH;
+        switch (buf[offset]) {
+            case 1:
+                return challenge(BinaryFrames.readUuid(buf, payload, payloadLength));
+            case 2:
+                return hello(BinaryFrames.readPort(buf, payload, payloadLength));
+            case 3:
+                return heartbeat();
+            case 4:
+                return connection(BinaryFrames.readUuid(buf, payload, payloadLength));
+            case 5:
+                return error(BinaryFrames.readString(buf, payload, payloadLength));
+            default:
+                throw new IOException("Unknown binary server message type " + buf[offset]);
+        }
+    }
     
+    /**
+     * 使用流式解析器读取 Rust 格式的消息，不构建JSON树
+     *
+     * 带数据的变体编码为单键对象（例如 {"Hello":8080}），无数据的变体编码为字符串（例如 "Heartbeat"）
+     */
+    public static ServerMessage read(JsonParser jp) throws IOException {
+        JsonToken token = jp.currentToken();
+        if (token == null) {
+            token = jp.nextToken();
+        }
+
+        ServerMessage message = new ServerMessage();
+        if (token == JsonToken.VALUE_STRING) {
+            if ("Heartbeat".equals(jp.getText())) {
+                message.type = MessageType.HEARTBEAT;
+            }
+            return message;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(jp, "Expected server message object");
+        }
+
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            jp.nextToken();
+            switch (field) {
+                case "Challenge":
+                    message.type = MessageType.CHALLENGE;
+                    message.challengeId = readUuid(jp);
+                    break;
+                case "Hello":
+                    message.type = MessageType.HELLO;
+                    message.helloPort = jp.getValueAsInt();
+                    break;
+                case "Heartbeat":
+                    message.type = MessageType.HEARTBEAT;
+                    jp.skipChildren();
+                    break;
+                case "Connection":
+                    message.type = MessageType.CONNECTION;
+                    message.connectionId = readUuid(jp);
+                    break;
+                case "Error":
+                    message.type = MessageType.ERROR;
+                    message.errorMessage = jp.getValueAsString();
+                    break;
+                case "ExtendedHello":
+                    message.type = MessageType.EXTENDED_HELLO;
+                    message.features = Feature.none();
+                    message.helloPort = Feature.readHello(jp, message.features);
+                    break;
+                default:
+                    jp.skipChildren();
+                    break;
+            }
+        }
+        return message;
+    }
+
+    private static UUID readUuid(JsonParser jp) throws IOException {
+        if (jp.currentToken() != JsonToken.VALUE_STRING) {
+            throw new JsonParseException(jp, "Expected UUID string");
+        }
+        try {
+            return UuidUtils.parse(jp.getTextCharacters(), jp.getTextOffset(), jp.getTextLength());
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException(jp, e.getMessage());
+        }
+    }
+
     /**
      * 自定义反序列化器，用于处理 Rust 格式的消息
      */
@@ -110,38 +264,58 @@ public class ServerMessage {
         @Override
         public ServerMessage deserialize(JsonParser jp, DeserializationContext ctxt) 
                 throws IOException, JsonProcessingException {
-            JsonNode node = jp.getCodec().readTree(jp);
+            return read(jp);
+        }
+    }
 
-            ServerMessage message = new ServerMessage();
-            // 检查是否有 Challenge 字段
-            if (node.has("Challenge")) {
-                message.type = MessageType.CHALLENGE;
-                message.challengeId = UUID.fromString(node.get("Challenge").asText());
-            }
+    /**
+     * 自定义序列化器，用于生成 Rust 格式的消息，供服务端使用
+     */
+    public static class ServerMessageSerializer extends StdSerializer<ServerMessage> {
 
-            // 检查是否有 Hello 字段
-            if (node.has("Hello")) {
-                message.type = MessageType.HELLO;
-                message.helloPort = node.get("Hello").asInt();
-            }
-            
-            // 检查是否有 Heartbeat 字段
-            if (node.has("Heartbeat")) {
-                message.type = MessageType.HEARTBEAT;
-            }
-            
-            // 检查是否有 Connection 字段
-            if (node.has("Connection")) {
-                message.type = MessageType.CONNECTION;
-                message.connectionId = UUID.fromString(node.get("Connection").asText());
-            }
-            
-            // 检查是否有 Error 字段
-            if (node.has("Error")) {
-                message.type = MessageType.ERROR;
-                message.errorMessage = node.get("Error").asText();
+        public ServerMessageSerializer() {
+            this(null);
+        }
+
+        public ServerMessageSerializer(Class<ServerMessage> t) {
+            super(t);
+        }
+
+        @Override
+        public void serialize(ServerMessage value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException, JsonProcessingException {
+            switch (value.type) {
+                case CHALLENGE:
+                    gen.writeStartObject();
+                    gen.writeStringField("Challenge", value.challengeId.toString());
+                    gen.writeEndObject();
+                    break;
+                case HELLO:
+                    gen.writeStartObject();
+                    gen.writeNumberField("Hello", value.helloPort);
+                    gen.writeEndObject();
+                    break;
+                case HEARTBEAT:
+                    // 无数据的变体编码为字符串
+                    gen.writeString("Heartbeat");
+                    break;
+                case CONNECTION:
+                    gen.writeStartObject();
+                    gen.writeStringField("Connection", value.connectionId.toString());
+                    gen.writeEndObject();
+                    break;
+                case ERROR:
+                    gen.writeStartObject();
+                    gen.writeStringField("Error", value.errorMessage);
+                    gen.writeEndObject();
+                    break;
+                case EXTENDED_HELLO:
+                    gen.writeStartObject();
+                    gen.writeFieldName("ExtendedHello");
+                    Feature.writeHello(gen, value.helloPort, value.features);
+                    gen.writeEndObject();
+                    break;
             }
-            return message;
         }
     }
-}
\ No newline at end of file
+}
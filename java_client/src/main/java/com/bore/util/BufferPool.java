@@ -0,0 +1,154 @@
+package com.bore.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按大小分级的ByteBuffer池，所有隧道共享
+ *
+ * 借出的缓冲区容量不小于请求大小；超过最大级别的请求直接分配且不回收。
+ * 池中空闲缓冲区的总字节数不超过上限，超出部分交给GC回收。
+ */
+public class BufferPool {
+    // 各级缓冲区容量，256字节一级用于控制帧
+    private static final int[] SIZE_CLASSES = {256, 1024, 4096, 8192, 16 * 1024, 64 * 1024};
+
+    // 每个池默认最多保留的空闲字节数
+    public static final long DEFAULT_MAX_POOLED_BYTES = 64L * 1024 * 1024;
+
+    private static final BufferPool HEAP = new BufferPool(false, DEFAULT_MAX_POOLED_BYTES);
+    private static final BufferPool DIRECT = new BufferPool(true, DEFAULT_MAX_POOLED_BYTES);
+
+    private final boolean direct;
+    private final Queue<ByteBuffer>[] classes;
+    private volatile long maxPooledBytes;
+
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong outstandingBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * 共享的堆缓冲区池，缓冲区带有可访问的数组
+     */
+    public static BufferPool heap() {
+        return HEAP;
+    }
+
+    /**
+     * 共享的直接缓冲区池，用于通道读写
+     */
+    public static BufferPool direct() {
+        return DIRECT;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(boolean direct, long maxPooledBytes) {
+        this.direct = direct;
+        this.maxPooledBytes = maxPooledBytes;
+        this.classes = new Queue[SIZE_CLASSES.length];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * 借出容量不小于size的缓冲区，使用完毕后必须通过release归还
+     */
+    public ByteBuffer acquire(int size) {
+        int index = classIndex(size);
+        ByteBuffer buffer = null;
+        if (index >= 0) {
+            buffer = classes[index].poll();
+        }
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.capacity());
+            hits.increment();
+        } else {
+            int capacity = index >= 0 ? SIZE_CLASSES[index] : size;
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            misses.increment();
+        }
+        outstandingBytes.addAndGet(buffer.capacity());
+        return buffer;
+    }
+
+    /**
+     * 归还借出的缓冲区，归还后调用方不得再使用
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        outstandingBytes.addAndGet(-capacity);
+
+        int index = classIndex(capacity);
+        if (index < 0 || SIZE_CLASSES[index] != capacity || buffer.isDirect() != direct) {
+            return;
+        }
+        long pooled;
+        do {
+            pooled = pooledBytes.get();
+            if (pooled + capacity > maxPooledBytes) {
+                return;
+            }
+        } while (!pooledBytes.compareAndSet(pooled, pooled + capacity));
+
+        buffer.clear();
+        classes[index].offer(buffer);
+    }
+
+    private static int classIndex(int size) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (size <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    /**
+     * 设置空闲缓冲区的字节上限，已在池中的缓冲区在下次借出时逐渐消耗
+     */
+    public void setMaxPooledBytes(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 当前已借出未归还的字节数
+     */
+    public long getOutstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    /**
+     * 当前池中空闲的字节数
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BufferPool[%s, hits=%d, misses=%d, outstanding=%d, pooled=%d/%d]",
+                direct ? "direct" : "heap", getHits(), getMisses(), getOutstandingBytes(), getPooledBytes(),
+                maxPooledBytes);
+    }
+}
@@ -0,0 +1,103 @@
+package com.bore.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 线程安全的帧写入器，合并并发写入的帧
+ *
+ * 多个线程同时写入时，只有最后一个等待者刷新输出流，一次系统调用写出整批帧；
+ * 第一帧进入缓冲区超过maxDelayNanos后即使仍有等待者也立即刷新，因此延迟有上界。
+ * 只有一个写入者时每帧都立即刷新，与逐帧flush的行为相同。
+ */
+public final class CoalescingWriter implements Closeable {
+    /**
+     * 将一帧写入缓冲输出流
+     */
+    public interface Frame {
+        void writeTo(DataOutputStream output) throws IOException;
+    }
+
+    // 默认的合并延迟上限
+    public static final long DEFAULT_MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final DataOutputStream output;
+    private final long maxDelayNanos;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    // 以下字段由lock保护
+    private boolean pending;
+    private long pendingSinceNanos;
+
+    public CoalescingWriter(OutputStream output, int bufferSize, long maxDelayNanos) {
+        this.output = new DataOutputStream(new BufferedOutputStream(output, bufferSize));
+        this.maxDelayNanos = maxDelayNanos;
+    }
+
+    /**
+     * 写入一帧，返回时该帧已交给操作系统，或将由正在等待的另一个写入者一起刷新
+     */
+    public void write(Frame frame) throws IOException {
+        waiting.incrementAndGet();
+        lock.lock();
+        try {
+            boolean written = false;
+            try {
+                frame.writeTo(output);
+                written = true;
+            } finally {
+                boolean last = waiting.decrementAndGet() == 0;
+                if (written) {
+                    frames.increment();
+                    if (!pending) {
+                        pending = true;
+                        pendingSinceNanos = System.nanoTime();
+                    }
+                }
+                if (pending && (last || System.nanoTime() - pendingSinceNanos >= maxDelayNanos)) {
+                    pending = false;
+                    flushes.increment();
+                    output.flush();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 已写入的帧数
+     */
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    /**
+     * 刷新次数，即写出批次的数量
+     */
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+
+    @Override
+    public String toString() {
+        long flushCount = getFlushes();
+        return String.format("CoalescingWriter[frames=%d, flushes=%d, framesPerFlush=%.2f]",
+                getFrames(), flushCount, flushCount == 0 ? 0.0 : (double) getFrames() / flushCount);
+    }
+}
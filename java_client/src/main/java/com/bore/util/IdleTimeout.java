@@ -0,0 +1,62 @@
+package com.bore.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * 连接的空闲超时，作为字节计数器接入转发路径，每次传输只更新最后活动时间
+ *
+ * 在时间轮上只保留一个定时任务：到期时若期间有过活动则按剩余时间重新登记，否则执行空闲回调，
+ * 因此活跃连接不会在每次读写时重新调度。
+ */
+public final class IdleTimeout implements LongConsumer {
+    private final long idleNanos;
+    private volatile long lastActivityNanos = System.nanoTime();
+    private volatile TimerWheel.Timeout timeout;
+    private volatile boolean cancelled;
+    private TimerWheel wheel;
+    private Runnable onIdle;
+
+    public IdleTimeout(long idleMs) {
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMs);
+    }
+
+    /**
+     * 开始计时，超过idleMs没有数据传输时在时间轮线程中执行onIdle
+     */
+    public void start(TimerWheel wheel, Runnable onIdle) {
+        this.wheel = wheel;
+        this.onIdle = onIdle;
+        lastActivityNanos = System.nanoTime();
+        timeout = wheel.schedule(idleNanos, this::check);
+    }
+
+    @Override
+    public void accept(long bytes) {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    private void check() {
+        if (cancelled) {
+            return;
+        }
+        long idle = System.nanoTime() - lastActivityNanos;
+        if (idle >= idleNanos) {
+            cancelled = true;
+            onIdle.run();
+        } else {
+            timeout = wheel.schedule(idleNanos - idle, this::check);
+        }
+    }
+
+    /**
+     * 连接结束时取消计时
+     */
+    public void cancel() {
+        cancelled = true;
+        TimerWheel.Timeout current = timeout;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+}
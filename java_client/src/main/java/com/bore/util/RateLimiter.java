@@ -0,0 +1,113 @@
+package com.bore.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 无锁令牌桶，可用于字节速率和连接速率
+ *
+ * 桶的状态只有一个理论到达时间（虚拟时钟），每次获取用一次CAS推进，不需要锁也不需要后台补充线程。
+ * 可以指定父限速器，例如单个连接的限速以隧道的限速为父，获取时两者都要满足。
+ */
+public final class RateLimiter {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long ratePerSecond;
+    private final long burstNanos;
+    private final RateLimiter parent;
+    // 桶恰好为空的时刻，早于当前时间表示桶中还有令牌
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * ratePerSecond为每秒补充的令牌数，burst为桶容量
+     */
+    public RateLimiter(long ratePerSecond, long burst) {
+        this(ratePerSecond, burst, null);
+    }
+
+    public RateLimiter(long ratePerSecond, long burst, RateLimiter parent) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + ratePerSecond);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.burstNanos = costNanos(Math.max(1, burst), ratePerSecond);
+        this.parent = parent;
+        this.theoreticalArrival = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * 创建以本限速器为父的限速器，rate不大于0时直接返回本限速器
+     */
+    public RateLimiter child(long ratePerSecond, long burst) {
+        return ratePerSecond > 0 ? new RateLimiter(ratePerSecond, burst, this) : this;
+    }
+
+    /**
+     * 尝试立即获取令牌，令牌不足时不扣除并返回false
+     */
+    public boolean tryAcquire(long permits) {
+        long cost = costNanos(permits, ratePerSecond);
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrival.get();
+            long next = Math.max(current, now - burstNanos) + cost;
+            if (next > now) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                break;
+            }
+        }
+        if (parent != null && !parent.tryAcquire(permits)) {
+            // 父限速器拒绝时退还已扣除的令牌
+            theoreticalArrival.addAndGet(-cost);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 无条件扣除令牌（允许透支），返回调用方应等待的纳秒数，0表示无需等待
+     */
+    public long reserve(long permits) {
+        long cost = costNanos(permits, ratePerSecond);
+        long delay;
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrival.get();
+            long next = Math.max(current, now - burstNanos) + cost;
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                delay = Math.max(0, next - now);
+                break;
+            }
+        }
+        return parent != null ? Math.max(delay, parent.reserve(permits)) : delay;
+    }
+
+    /**
+     * 扣除令牌并在需要时阻塞等待，被中断时提前返回
+     */
+    public void acquire(long permits) {
+        long delay = reserve(permits);
+        if (delay > 0) {
+            LockSupport.parkNanos(delay);
+        }
+    }
+
+    public long getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    private static long costNanos(long permits, long ratePerSecond) {
+        if (permits > Long.MAX_VALUE / NANOS_PER_SECOND) {
+            return permits / ratePerSecond * NANOS_PER_SECOND;
+        }
+        return permits * NANOS_PER_SECOND / ratePerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter[" + ratePerSecond + "/s" + (parent != null ? ", parent=" + parent : "") + "]";
+    }
+}
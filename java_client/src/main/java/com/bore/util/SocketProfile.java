@@ -0,0 +1,64 @@
+package com.bore.util;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * 隧道两端Socket的TCP选项和对应的阻塞复制写入策略
+ */
+public enum SocketProfile {
+    // 操作系统默认选项（启用Nagle算法），每次读取后立即写出
+    DEFAULT(false, false, 0, 8192, false),
+    // 交互式流量（SSH、Redis）：禁用Nagle算法，每次读取后立即写出
+    LATENCY(true, true, 0, 8192, false),
+    // 批量流量（文件下载）：大缓冲区，写出前先读完已到达的数据，以更少、更大的写入换取吞吐量；
+    // 合并写入需要JDK 13及以上，见isGatherWrites
+    THROUGHPUT(true, true, 1024 * 1024, 64 * 1024, true);
+
+    private final boolean tcpNoDelay;
+    private final boolean keepAlive;
+    private final int socketBufferSize;
+    private final int copyBufferSize;
+    private final boolean gatherWrites;
+
+    SocketProfile(boolean tcpNoDelay, boolean keepAlive, int socketBufferSize, int copyBufferSize,
+                  boolean gatherWrites) {
+        this.tcpNoDelay = tcpNoDelay;
+        this.keepAlive = keepAlive;
+        this.socketBufferSize = socketBufferSize;
+        this.copyBufferSize = copyBufferSize;
+        this.gatherWrites = gatherWrites;
+    }
+
+    /**
+     * 设置Socket选项，应在连接之前调用，以便接收缓冲区大小参与TCP窗口协商
+     */
+    public void apply(Socket socket) throws SocketException {
+        if (this == DEFAULT) {
+            return;
+        }
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(keepAlive);
+        if (socketBufferSize > 0) {
+            socket.setSendBufferSize(socketBufferSize);
+            socket.setReceiveBufferSize(socketBufferSize);
+        }
+    }
+
+    /**
+     * 阻塞复制使用的缓冲区大小
+     */
+    public int getCopyBufferSize() {
+        return copyBufferSize;
+    }
+
+    /**
+     * 是否在写出前继续读取已到达的数据，合并为一次写入
+     *
+     * 已到达的数据量由InputStream.available()判断。隧道的Socket都由SocketChannel创建，
+     * JDK 13之前通道适配器的available()总是返回0，合并不会发生，每次读取后立即写出，只保留大缓冲区和Socket选项的效果
+     */
+    public boolean isGatherWrites() {
+        return gatherWrites;
+    }
+}
@@ -1,68 +1,231 @@
 package com.bore.util;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
 
 /**
  * 流处理工具类
  */
 public class StreamUtils {
+    // 通道复制使用的直接缓冲区大小
+    private static final int DIRECT_BUFFER_SIZE = 64 * 1024;
+
     /**
      * 在两个流之间双向复制数据
      */
     public static void copyBidirectional(Socket socket1, Socket socket2) throws IOException {
-        ExecutorService executor = Executors.newFixedThreadPool(2);
-        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
         try {
-            // 从socket1到socket2
-            executor.submit(() -> {
-                try {
-                    copyStream(socket1.getInputStream(), socket2.getOutputStream());
-                } catch (IOException e) {
-                    // 连接可能已关闭，这是预期的
+            copyBidirectional(socket1, socket2, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 在两个流之间双向复制数据，一个方向在给定执行器中运行，另一个方向在当前线程中运行
+     *
+     * 执行器由调用方共享（例如客户端的连接线程池或虚拟线程执行器），不会为每个连接创建新的线程池
+     */
+    public static void copyBidirectional(Socket socket1, Socket socket2, ExecutorService executor) throws IOException {
+        copyBidirectional(socket1, socket2, executor, SocketProfile.DEFAULT);
+    }
+
+    /**
+     * 在两个流之间双向复制数据，缓冲区大小和写入策略由profile决定
+     */
+    public static void copyBidirectional(Socket socket1, Socket socket2, ExecutorService executor,
+                                         SocketProfile profile) throws IOException {
+        copyBidirectional(socket1, socket2, executor, profile, null, null);
+    }
+
+    /**
+     * 在两个流之间双向复制数据，每次写出后将字节数报告给对应方向的计数器（可为null）
+     */
+    public static void copyBidirectional(Socket socket1, Socket socket2, ExecutorService executor,
+                                         SocketProfile profile, LongConsumer forwardBytes, LongConsumer reverseBytes)
+            throws IOException {
+        copyBidirectional(socket1, socket2, executor, profile, forwardBytes, reverseBytes,
+                socket2.getInputStream(), socket2.getOutputStream());
+    }
+
+    /**
+     * 在两个流之间双向复制数据，socket2一侧经由给定的流读写（例如压缩编解码），计数器报告的是编码前的字节数
+     *
+     * 流由调用方创建和关闭；半关闭和出错时的关闭仍作用于socket2本身
+     */
+    public static void copyBidirectional(Socket socket1, Socket socket2, ExecutorService executor,
+                                         SocketProfile profile, LongConsumer forwardBytes, LongConsumer reverseBytes,
+                                         InputStream input2, OutputStream output2) throws IOException {
+        InputStream input1 = socket1.getInputStream();
+        OutputStream output1 = socket1.getOutputStream();
+
+        // 从socket2到socket1
+        Future<?> reverse = executor.submit(() -> copyHalf(input2, output1, socket2, socket1, profile, reverseBytes));
+
+        // 从socket1到socket2
+        copyHalf(input1, output2, socket1, socket2, profile, forwardBytes);
+
+        // 等待另一个方向完成，连接闲置时由调用方的空闲超时关闭Socket结束等待
+        awaitReverse(reverse, socket1, socket2);
+    }
+
+    /**
+     * 复制一个方向的数据，源端结束时半关闭目标端，使对端读到EOF而另一个方向继续传输；
+     * 出错时关闭两端，另一个方向的阻塞读取随之结束
+     */
+    private static void copyHalf(InputStream input, OutputStream output, Socket source, Socket target,
+                                 SocketProfile profile, LongConsumer counter) {
+        try {
+            copyStream(input, output, profile, counter);
+            shutdownOutput(target);
+        } catch (IOException e) {
+            // 连接可能已关闭，这是预期的
+            closeQuietly(source);
+            closeQuietly(target);
+        }
+    }
+
+    /**
+     * 半关闭Socket的输出；不支持半关闭的Socket（Java 8的SSLSocket）只能整体关闭
+     */
+    private static void shutdownOutput(Socket socket) throws IOException {
+        try {
+            socket.shutdownOutput();
+        } catch (UnsupportedOperationException e) {
+            socket.close();
+        }
+    }
+
+    /**
+     * 将一个流的内容复制到另一个流
+     *
+     * 启用合并写入时，写出前继续读取输入中已到达的数据，直到缓冲区满或没有更多数据，不会为等待数据而延迟写出；
+     * 由通道创建的Socket在JDK 13之前无法得知已到达的数据量，此时不合并
+     */
+    private static void copyStream(InputStream input, OutputStream output, SocketProfile profile, LongConsumer counter)
+            throws IOException {
+        int size = profile.getCopyBufferSize();
+        ByteBuffer pooled = BufferPool.heap().acquire(size);
+        try {
+            byte[] buffer = pooled.array();
+            int bytesRead;
+            while ((bytesRead = input.read(buffer, 0, size)) != -1) {
+                int filled = bytesRead;
+                boolean eof = false;
+                if (profile.isGatherWrites()) {
+                    while (filled < size && input.available() > 0) {
+                        bytesRead = input.read(buffer, filled, size - filled);
+                        if (bytesRead == -1) {
+                            eof = true;
+                            break;
+                        }
+                        filled += bytesRead;
+                    }
                 }
-                return null;
-            });
-            
-            // 从socket2到socket1
-            executor.submit(() -> {
-                try {
-                    copyStream(socket2.getInputStream(), socket1.getOutputStream());
-                } catch (IOException e) {
-                    // 连接可能已关闭，这是预期的
+                output.write(buffer, 0, filled);
+                output.flush();
+                if (counter != null) {
+                    counter.accept(filled);
                 }
-                return null;
-            });
-            
-            // 等待两个任务完成或超时
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
-                    executor.shutdownNow();
+                if (eof) {
+                    break;
                 }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
-                Thread.currentThread().interrupt();
             }
         } finally {
-            executor.shutdownNow();
+            BufferPool.heap().release(pooled);
         }
     }
 
     /**
-     * 将一个流的内容复制到另一个流
+     * 在两个阻塞模式的通道之间双向复制数据，一个方向在给定执行器中运行，另一个方向在当前线程中运行
+     *
+     * 数据经由池化的直接缓冲区在内核和通道之间传递，不经过Java堆，也没有每次读取后的flush
      */
-    private static void copyStream(InputStream input, OutputStream output) throws IOException {
-        byte[] buffer = new byte[8192];
-        int bytesRead;
-        while ((bytesRead = input.read(buffer)) != -1) {
-            output.write(buffer, 0, bytesRead);
-            output.flush();
+    public static void copyBidirectional(SocketChannel channel1, SocketChannel channel2, ExecutorService executor) {
+        copyBidirectional(channel1, channel2, executor, null, null);
+    }
+
+    /**
+     * 在两个阻塞模式的通道之间双向复制数据，每次写出后将字节数报告给对应方向的计数器（可为null）
+     */
+    public static void copyBidirectional(SocketChannel channel1, SocketChannel channel2, ExecutorService executor,
+                                         LongConsumer forwardBytes, LongConsumer reverseBytes) {
+        // 从channel2到channel1
+        Future<?> reverse = executor.submit(() -> copyHalf(channel2, channel1, reverseBytes));
+
+        // 从channel1到channel2
+        copyHalf(channel1, channel2, forwardBytes);
+
+        // 等待另一个方向完成，连接闲置时由调用方的空闲超时关闭通道结束等待
+        awaitReverse(reverse, channel1, channel2);
+    }
+
+    private static void copyHalf(SocketChannel source, SocketChannel target, LongConsumer counter) {
+        try {
+            copyChannel(source, target, counter);
+            target.shutdownOutput();
+        } catch (IOException e) {
+            // 连接可能已关闭，这是预期的
+            closeQuietly(source);
+            closeQuietly(target);
+        }
+    }
+
+    /**
+     * 等待在执行器中运行的方向结束，然后关闭两端；被中断时关闭两端使其结束
+     */
+    private static void awaitReverse(Future<?> reverse, Closeable end1, Closeable end2) {
+        try {
+            reverse.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // 复制任务自行处理IO错误
+        } finally {
+            closeQuietly(end1);
+            closeQuietly(end2);
+        }
+    }
+
+    /**
+     * 将一个通道的内容复制到另一个通道
+     */
+    private static void copyChannel(SocketChannel input, SocketChannel output, LongConsumer counter) throws IOException {
+        ByteBuffer buffer = BufferPool.direct().acquire(DIRECT_BUFFER_SIZE);
+        try {
+            while (input.read(buffer) != -1) {
+                buffer.flip();
+                int length = buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+                if (counter != null) {
+                    counter.accept(length);
+                }
+                buffer.clear();
+            }
+        } finally {
+            BufferPool.direct().release(buffer);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 忽略关闭错误
         }
     }
 
@@ -70,8 +233,45 @@ public class StreamUtils {
      * 带超时的连接
      */
     public static Socket connectWithTimeout(String host, int port, int timeoutMs) throws IOException {
+        return connectWithTimeout(host, port, timeoutMs, SocketProfile.DEFAULT);
+    }
+
+    /**
+     * 带超时的连接，连接前按profile设置Socket选项
+     */
+    public static Socket connectWithTimeout(String host, int port, int timeoutMs, SocketProfile profile)
+            throws IOException {
         Socket socket = new Socket();
-        socket.connect(new java.net.InetSocketAddress(host, port), timeoutMs);
+        try {
+            profile.apply(socket);
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
         return socket;
     }
-}
\ No newline at end of file
+
+    /**
+     * 带超时的连接，返回阻塞模式的通道，可在握手后交给非阻塞引擎
+     */
+    public static SocketChannel openChannelWithTimeout(String host, int port, int timeoutMs) throws IOException {
+        return openChannelWithTimeout(host, port, timeoutMs, SocketProfile.DEFAULT);
+    }
+
+    /**
+     * 带超时的连接，连接前按profile设置Socket选项，返回阻塞模式的通道
+     */
+    public static SocketChannel openChannelWithTimeout(String host, int port, int timeoutMs, SocketProfile profile)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            profile.apply(channel.socket());
+            channel.socket().connect(new InetSocketAddress(host, port), timeoutMs);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+}
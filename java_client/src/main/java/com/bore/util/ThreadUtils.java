@@ -0,0 +1,57 @@
+package com.bore.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 线程池工具类
+ */
+public class ThreadUtils {
+    /**
+     * 创建每个任务一个虚拟线程的执行器，需要Java 21及以上运行时
+     *
+     * 项目以Java 8为编译目标，因此通过反射调用，在旧运行时上抛出UnsupportedOperationException
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads require Java 21+, running on " + System.getProperty("java.version"));
+        } catch (InvocationTargetException e) {
+            // Java 19和20上虚拟线程是预览特性，未启用--enable-preview时方法存在但调用失败
+            throw new UnsupportedOperationException("Virtual threads require Java 21+ (or --enable-preview on 19/20), "
+                    + "running on " + System.getProperty("java.version"), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create virtual thread executor", e);
+        }
+    }
+
+    /**
+     * 当前运行时是否支持虚拟线程
+     *
+     * 通过实际创建一次执行器判断，方法存在但预览特性未启用时返回false
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreadProbe.SUPPORTED;
+    }
+
+    /**
+     * 首次使用时探测一次
+     */
+    private static final class VirtualThreadProbe {
+        private static final boolean SUPPORTED = probe();
+
+        private static boolean probe() {
+            try {
+                newVirtualThreadPerTaskExecutor().shutdownNow();
+                return true;
+            } catch (UnsupportedOperationException | IllegalStateException e) {
+                return false;
+            }
+        }
+    }
+}
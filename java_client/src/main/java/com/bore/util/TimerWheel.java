@@ -0,0 +1,182 @@
+package com.bore.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 哈希时间轮：所有定时任务共用一个线程和一个固定大小的槽数组
+ *
+ * 添加和取消都是O(1)，不需要排序；到期时间只精确到一个刻度。任务在时间轮线程中执行，应当很快返回。
+ * 适合大量通常不会到期、或到期前会被延后的超时，例如连接的空闲超时。
+ */
+public final class TimerWheel implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+    // 进程内共享的时间轮，刻度100毫秒，一圈约51秒
+    private static volatile TimerWheel shared;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    // 其他线程添加的任务，由时间轮线程在每个刻度放入槽中
+    private final Queue<Timeout> additions = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private final long startNanos;
+    private volatile boolean running = true;
+    // 只在时间轮线程中访问
+    private long tick;
+
+    /**
+     * 创建时间轮，wheelSize向上取整为2的幂
+     */
+    public TimerWheel(String name, long tickMs, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 进程内共享的时间轮，首次使用时启动
+     */
+    public static TimerWheel shared() {
+        TimerWheel wheel = shared;
+        if (wheel == null) {
+            synchronized (TimerWheel.class) {
+                wheel = shared;
+                if (wheel == null) {
+                    wheel = new TimerWheel("bore-timer-wheel", 100, 512);
+                    shared = wheel;
+                }
+            }
+        }
+        return wheel;
+    }
+
+    /**
+     * 在delayNanos之后执行task，可以从任意线程调用
+     */
+    public Timeout schedule(long delayNanos, Runnable task) {
+        Timeout timeout = new Timeout(System.nanoTime() + Math.max(0, delayNanos), task);
+        additions.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            transferAdditions();
+            wheel[(int) (tick & mask)].expire(System.nanoTime());
+            tick++;
+        }
+    }
+
+    private void transferAdditions() {
+        Timeout timeout;
+        while ((timeout = additions.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // 已经过期的任务放入当前槽，在本刻度执行
+            long ticks = Math.max(tick, (timeout.deadlineNanos - startNanos) / tickNanos);
+            timeout.remainingRounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+    }
+
+    /**
+     * 一个定时任务，取消后不会执行，从槽中移除推迟到它所在的槽被扫描时
+     */
+    public static final class Timeout {
+        private final long deadlineNanos;
+        private final Runnable task;
+        private volatile boolean cancelled;
+        // 以下字段只在时间轮线程中访问
+        private long remainingRounds;
+        private Timeout next;
+
+        private Timeout(long deadlineNanos, Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.task = task;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * 一个槽中的任务链表
+     */
+    private static final class Bucket {
+        private Timeout head;
+
+        private void add(Timeout timeout) {
+            timeout.next = head;
+            head = timeout;
+        }
+
+        private void expire(long now) {
+            Timeout previous = null;
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                boolean remove;
+                if (timeout.cancelled) {
+                    remove = true;
+                } else if (timeout.remainingRounds > 0) {
+                    timeout.remainingRounds--;
+                    remove = false;
+                } else {
+                    remove = true;
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        logger.warn("Timer task failed: {}", e.getMessage());
+                    }
+                }
+                if (remove) {
+                    if (previous == null) {
+                        head = next;
+                    } else {
+                        previous.next = next;
+                    }
+                    timeout.next = null;
+                } else {
+                    previous = timeout;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
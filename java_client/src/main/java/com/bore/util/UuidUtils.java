@@ -0,0 +1,36 @@
+package com.bore.util;
+
+import java.util.UUID;
+
+/**
+ * UUID解析和编码工具类
+ */
+public class UuidUtils {
+    /**
+     * 解析标准格式（8-4-4-4-12）的UUID字符，不创建中间字符串
+     */
+    public static UUID parse(char[] chars, int offset, int length) {
+        if (length != 36
+                || chars[offset + 8] != '-' || chars[offset + 13] != '-'
+                || chars[offset + 18] != '-' || chars[offset + 23] != '-') {
+            throw new IllegalArgumentException("Invalid UUID string: " + new String(chars, offset, length));
+        }
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0; i < 36; i++) {
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                continue;
+            }
+            int digit = Character.digit(chars[offset + i], 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid UUID string: " + new String(chars, offset, length));
+            }
+            if (i < 19) {
+                msb = (msb << 4) | digit;
+            } else {
+                lsb = (lsb << 4) | digit;
+            }
+        }
+        return new UUID(msb, lsb);
+    }
+}